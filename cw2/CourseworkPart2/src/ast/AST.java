@@ -1,64 +1,124 @@
 package ast;
 
 import ast.util.Visitor;
+import compile.SymbolTable;
+import compile.VarInfo;
+import ir.InstructionBuffer;
 import stackmachine.machine.OpCode;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.LinkedList;
-import java.util.List;
-
 public abstract class AST {
 
-    private static List<String> emitted;
+    /**
+     * Emit a sequence of SSM assembly code lines: instructions, labels,
+     * comments, or instructions the SSM does not have. Each line is parsed,
+     * so code generators should prefer the typed emit methods.
+     * @param st the symbol table of the compilation, whose context receives the code
+     * @param ss the lines.
+     */
+    protected static void emit(SymbolTable st, String ...ss) {
+        InstructionBuffer code = st.context().code();
+        for (String s: ss) code.appendLine(s);
+    }
 
-    private static ast.util.PrettyPrinter pp;
+    /**
+     * Emit a sequence of SSM instructions which take no operand.
+     */
+    protected static void emit(SymbolTable st, OpCode ...opcodes) {
+        InstructionBuffer code = st.context().code();
+        for (OpCode opcode: opcodes) code.append(opcode);
+    }
 
-    static {
-        emitted = new LinkedList<>();
-        pp = new ast.util.PrettyPrinter();
+    /**
+     * Emit an SSM instruction with a numeric operand.
+     */
+    protected static void emit(SymbolTable st, OpCode opcode, int operand) {
+        st.context().code().append(opcode, operand);
     }
 
-    private static String formatEmit(String s) {
-        String[] parts = s.split(" |\t");
-        if (parts.length > 0 && isMnemonic(parts[0])) {
-            return "\t" + s;
-        } else {
-            return s;
-        }
+    /**
+     * Emit an SSM instruction whose operand is a label or a syscall name.
+     */
+    protected static void emit(SymbolTable st, OpCode opcode, String symbol) {
+        st.context().code().append(opcode, symbol);
     }
 
-    private static boolean isMnemonic(String s) {
-        for (OpCode opcode: OpCode.values()) {
-            if (opcode.mnemonic.equals(s)) return true;
-        }
-        return false;
+    /**
+     * Emit a label for the next instruction.
+     */
+    protected static void emitLabel(SymbolTable st, String label) {
+        st.context().code().appendLabel(label);
     }
 
     /**
-     * Emit a sequence of SSM assembly instructions.
-     * @param ss the instructions.
+     * Emit a numbered label (see SymbolTable.freshLabel) for the next
+     * instruction. It is dropped from the output if no instruction refers
+     * to it.
      */
-    protected static void emit(String ...ss) {
-        for (String s: ss) emitted.add(s);
+    protected static void emitLabel(SymbolTable st, int label) {
+        st.context().code().appendLocalLabel(label, false);
     }
 
     /**
-     * Write the emitted SSM assembly code to a file and clear the emitted
-     * code list.
-     * @param path a path to the file where the assembly code is to be written
+     * Emit a numbered label which is kept even if no instruction refers to
+     * it, such as an entry of a jump table, which is reached by a computed
+     * jump.
      */
-    public static void write(Path path) throws IOException {
-        try(BufferedWriter writer = Files.newBufferedWriter(path, Charset.forName("UTF-8"))) {
-            for(String s: emitted) {
-                writer.write(formatEmit(s));
-                writer.write("\n");
-            }
+    protected static void emitKeptLabel(SymbolTable st, int label) {
+        st.context().code().appendLocalLabel(label, true);
+    }
+
+    /**
+     * Emit an SSM instruction whose operand is a numbered label: a jump to
+     * it, or a push of its address.
+     */
+    protected static void emitToLabel(SymbolTable st, OpCode opcode, int label) {
+        st.context().code().appendLocal(opcode, label);
+    }
+
+    /**
+     * Emit a labelled data word (after the .data directive).
+     */
+    protected static void emitData(SymbolTable st, String label, int value) {
+        st.context().code().appendData(label, value);
+    }
+
+    /**
+     * Emit code which pushes the value of a variable: a single loadi for a
+     * global, or a load from the frame for a parameter or local.
+     * @param st the symbol table for the program being compiled
+     * @param varName the variable
+     */
+    protected static void emitLoad(SymbolTable st, String varName) {
+        VarInfo info = st.getVarI(varName);
+        if (info.isGlobal()) {
+            emit(st, OpCode.LOADI, st.getGlobalLabel(varName));
+        } else {
+            emit(st, OpCode.GET_FP);
+            emit(st, OpCode.PUSH, info.getFrameOffset());
+            emit(st, OpCode.ADD, OpCode.LOAD);
+        }
+    }
+
+    /**
+     * Emit code which evaluates an expression and stores its value in a
+     * variable: a single storei for a global; for a parameter or local the
+     * address is pushed first so that no swap is needed.
+     * @param st the symbol table for the program being compiled
+     * @param varName the variable
+     * @param exp the expression
+     */
+    protected static void emitStore(SymbolTable st, String varName, Exp exp) {
+        VarInfo info = st.getVarI(varName);
+        if (info.isGlobal()) {
+            exp.compile(st);
+            emit(st, OpCode.STOREI, st.getGlobalLabel(varName));
+        } else {
+            emit(st, OpCode.GET_FP);
+            emit(st, OpCode.PUSH, info.getFrameOffset());
+            emit(st, OpCode.ADD);
+            exp.compile(st);
+            emit(st, OpCode.STORE);
         }
-        emitted.clear();
     }
 
     public <T> T accept(Visitor<T> visitor) {
@@ -68,7 +128,8 @@ public abstract class AST {
 
     @Override
     public String toString() {
-        return accept(pp);
+        // a printer per call, since it is not safe to share between threads
+        return accept(new ast.util.PrettyPrinter());
     }
 
 }
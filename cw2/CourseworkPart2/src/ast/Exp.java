@@ -1,16 +1,47 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 /**
  * The abstract parent type for all expression AST classes.
  */
 public abstract class Exp extends AST {
 
+    /**
+     * The label argument of compileCondition for an outcome which falls
+     * through to the following code.
+     */
+    public static final int FALL_THROUGH = -1;
+
     /**
      * Emit SSM assembly code which implements this expression.
      * @param st the symbol table for the program being compiled
      */
     public abstract void compile(SymbolTable st);
 
+    /**
+     * Emit SSM assembly code which evaluates this expression as a condition
+     * and jumps to trueLabel if it is non-zero, or to falseLabel if it is
+     * zero, leaving nothing on the stack. At most one of the labels may be
+     * FALL_THROUGH, in which case that outcome falls through to the
+     * following code.
+     * By default the value is computed and then tested.
+     * @param st the symbol table for the program being compiled
+     * @param trueLabel where to jump if the condition holds, or FALL_THROUGH
+     * @param falseLabel where to jump if the condition does not hold, or FALL_THROUGH
+     */
+    public void compileCondition(SymbolTable st, int trueLabel, int falseLabel) {
+        compile(st);
+        if (falseLabel == FALL_THROUGH) {
+            emit(st, OpCode.TEST_Z);
+            emitToLabel(st, OpCode.JUMPI_Z, trueLabel);
+        } else {
+            emitToLabel(st, OpCode.JUMPI_Z, falseLabel);
+            if (trueLabel != FALL_THROUGH) {
+                emitToLabel(st, OpCode.JUMPI, trueLabel);
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpAnd extends Exp {
 
@@ -16,18 +17,28 @@ public class ExpAnd extends Exp {
         // this version is correct except for short-cut semantics
 //        left.compile(st);
 //        right.compile(st);
-//        emit("mul", "test_z", "test_z");
+//        emit(st, "mul", "test_z", "test_z");
         // this version is fully correct
-        String shortCutLabel = st.freshLabel("AND_short_cut");
-        String endLabel = st.freshLabel("AND_end");
+        int shortCutLabel = st.freshLabel();
+        int endLabel = st.freshLabel();
         left.compile(st);
-        emit("jumpi_z " + shortCutLabel);
+        emitToLabel(st, OpCode.JUMPI_Z, shortCutLabel);
         right.compile(st);
-        emit("test_z", "test_z");
-        emit("jumpi " + endLabel);
-        emit(shortCutLabel + ":");
-        emit("push 0");
-        emit(endLabel + ":");
+        emit(st, OpCode.TEST_Z, OpCode.TEST_Z);
+        emitToLabel(st, OpCode.JUMPI, endLabel);
+        emitLabel(st, shortCutLabel);
+        emit(st, OpCode.PUSH, 0);
+        emitLabel(st, endLabel);
+    }
+
+    @Override
+    public void compileCondition(SymbolTable st, int trueLabel, int falseLabel) {
+        int shortCutLabel = falseLabel != FALL_THROUGH ? falseLabel : st.freshLabel();
+        left.compileCondition(st, FALL_THROUGH, shortCutLabel);
+        right.compileCondition(st, trueLabel, falseLabel);
+        if (falseLabel == FALL_THROUGH) {
+            emitLabel(st, shortCutLabel);
+        }
     }
 
     @Override
@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 import java.util.List;
 
 /**
@@ -24,16 +25,16 @@ public class ExpArrayAccess extends Exp {
 
     @Override
     public void compile(SymbolTable st) {
-        emit("load " + id);
+        emit(st, OpCode.LOAD, id);
 
         for (Exp indexer : indexers) {
 
             indexer.compile(st);
 
-            emit("array_index");
+            emit(st, "array_index");
         }
 
-        emit("load_indirect");
+        emit(st, "load_indirect");
     }
 
     @Override
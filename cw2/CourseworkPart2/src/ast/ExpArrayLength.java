@@ -6,7 +6,7 @@ import compile.SymbolTable;
 
 public class ExpArrayLength extends Exp {
 
-    private final Exp array;
+    public final Exp array;
 
 
     public ExpArrayLength(Exp array) {
@@ -18,7 +18,7 @@ public class ExpArrayLength extends Exp {
     public void compile(SymbolTable st) {
         array.compile(st);
 
-        emit("array_length");
+        emit(st, "array_length");
     }
 
     @Override
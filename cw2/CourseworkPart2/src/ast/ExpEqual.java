@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpEqual extends Exp {
 
@@ -15,7 +16,23 @@ public class ExpEqual extends Exp {
     public void compile(SymbolTable st) {
         left.compile(st);
         right.compile(st);
-        emit("sub", "test_z");
+        emit(st, OpCode.SUB, OpCode.TEST_Z);
+    }
+
+    @Override
+    public void compileCondition(SymbolTable st, int trueLabel, int falseLabel) {
+        if (trueLabel == FALL_THROUGH) {
+            super.compileCondition(st, FALL_THROUGH, falseLabel);
+        } else {
+            // the difference is zero exactly when the condition holds
+            left.compile(st);
+            right.compile(st);
+            emit(st, OpCode.SUB);
+            emitToLabel(st, OpCode.JUMPI_Z, trueLabel);
+            if (falseLabel != FALL_THROUGH) {
+                emitToLabel(st, OpCode.JUMPI, falseLabel);
+            }
+        }
     }
 
     @Override
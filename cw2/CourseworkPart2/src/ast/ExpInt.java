@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpInt extends Exp {
     public final int value;
@@ -11,7 +12,15 @@ public class ExpInt extends Exp {
 
     @Override
     public void compile(SymbolTable st) {
-        emit("push " + value);
+        emit(st, OpCode.PUSH, value);
+    }
+
+    @Override
+    public void compileCondition(SymbolTable st, int trueLabel, int falseLabel) {
+        int target = value != 0 ? trueLabel : falseLabel;
+        if (target != FALL_THROUGH) {
+            emitToLabel(st, OpCode.JUMPI, target);
+        }
     }
 
     @Override
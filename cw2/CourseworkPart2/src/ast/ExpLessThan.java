@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpLessThan extends Exp {
 
@@ -15,7 +16,7 @@ public class ExpLessThan extends Exp {
     public void compile(SymbolTable st) {
         left.compile(st);
         right.compile(st);
-        emit("sub", "test_n");
+        emit(st, OpCode.SUB, OpCode.TEST_N);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpLessThanEqual extends Exp {
 
@@ -15,8 +16,9 @@ public class ExpLessThanEqual extends Exp {
     public void compile(SymbolTable st) {
         left.compile(st);
         right.compile(st);
-        emit("push 1", "add");
-        emit("sub", "test_n");
+        emit(st, OpCode.PUSH, 1);
+        emit(st, OpCode.ADD);
+        emit(st, OpCode.SUB, OpCode.TEST_N);
     }
 
     @Override
@@ -1,7 +1,12 @@
 package ast;
 
 import compile.SymbolTable;
+import compile.VarInfo;
+import stackmachine.machine.OpCode;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * AST node representing a method call expression.
@@ -19,15 +24,68 @@ public class ExpMethodCall extends Exp {
     @Override
     public void compile(SymbolTable st) {
 
-        for (int i = arguments.size() - 1; i >= 0; i--) {
-            arguments.get(i).compile(st);
+        // arguments are evaluated from left to right (see MethodsInfo)
+        for (Exp arg : arguments) {
+            arg.compile(st);
         }
 
-        emit("push " + arguments.size());
+        emit(st, OpCode.PUSH, arguments.size());
+
+
+        emit(st, OpCode.CALLI, st.getMethodLabel(methodName));
 
+    }
 
-        emit("calli " + st.getMethodLabel(methodName));
+    /**
+     * Compile a call in tail position which reuses the current frame (see
+     * SymbolTable.canTailCall): the arguments are evaluated, then stored over
+     * the current parameters, and control jumps past the callee's prologue.
+     * The callee's return then goes straight back to the current caller.
+     */
+    public void compileTailCall(SymbolTable st) {
+        emitTailCall(st, methodName, arguments);
+    }
 
+    static void emitTailCall(SymbolTable st, String methodName, List<Exp> arguments) {
+        // parameters passed on unchanged in their own position need not be stored
+        // parameter i of n is at offset n - i + 1 (see MethodsInfo)
+        int n = arguments.size();
+        List<Integer> stored = new ArrayList<>();
+        for (int i = 1; i <= n; i++) {
+            if (!isParameter(st, arguments.get(i - 1), n - i + 1)) {
+                stored.add(i);
+            }
+        }
+        // all arguments are evaluated before any parameter is overwritten; the
+        // address for the last one is pushed first so it needs no swap
+        for (int k = 0; k < stored.size(); k++) {
+            int i = stored.get(k);
+            if (k == stored.size() - 1) {
+                emit(st, OpCode.GET_FP);
+                emit(st, OpCode.PUSH, 4 * (n - i + 1));
+                emit(st, OpCode.ADD);
+                arguments.get(i - 1).compile(st);
+                emit(st, OpCode.STORE);
+            } else {
+                arguments.get(i - 1).compile(st);
+            }
+        }
+        for (int k = stored.size() - 2; k >= 0; k--) {
+            emit(st, OpCode.GET_FP);
+            emit(st, OpCode.PUSH, 4 * (n - stored.get(k) + 1));
+            emit(st, OpCode.ADD);
+            emit(st, OpCode.SWAP);
+            emit(st, OpCode.STORE);
+        }
+        emit(st, OpCode.JUMPI, st.getMethodBodyLabel(methodName));
+    }
+
+    private static boolean isParameter(SymbolTable st, Exp exp, int offset) {
+        if (!(exp instanceof ExpVar)) {
+            return false;
+        }
+        VarInfo info = st.getVarI(((ExpVar) exp).varName);
+        return Objects.equals(info.getVarI(), SymbolTable.INFO_PARAMETERS) && info.getOffset() == offset;
     }
 
     @Override
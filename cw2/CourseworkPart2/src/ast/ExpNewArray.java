@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 import java.util.List;
 
 /**
@@ -25,10 +26,10 @@ public class ExpNewArray extends Exp {
 
         for (Exp dimension : dimensions) {
             dimension.compile(st);
-            emit("push");
+            emit(st, OpCode.PUSH);
         }
 
-        emit("new_array " + dimensions.size());
+        emit(st, "new_array " + dimensions.size());
 
     }
 
@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpNot extends Exp {
 
@@ -13,7 +14,12 @@ public class ExpNot extends Exp {
     @Override
     public void compile(SymbolTable st) {
         e.compile(st);
-        emit("test_z");
+        emit(st, OpCode.TEST_Z);
+    }
+
+    @Override
+    public void compileCondition(SymbolTable st, int trueLabel, int falseLabel) {
+        e.compileCondition(st, falseLabel, trueLabel);
     }
 
     @Override
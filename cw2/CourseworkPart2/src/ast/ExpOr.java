@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpOr extends Exp {
 
@@ -15,21 +16,32 @@ public class ExpOr extends Exp {
     public void compile(SymbolTable st) {
         // this version is correct except for short-cut semantics
 //        left.compile(st);
-//        emit("test_z");
+//        emit(st, "test_z");
 //        right.compile(st);
-//        emit("test_z");
-//        emit("mul");
-//        emit("test_z");
+//        emit(st, "test_z");
+//        emit(st, "mul");
+//        emit(st, "test_z");
         // this version is fully correct
-        String longWayLabel = st.freshLabel("OR_long_way");
-        String endLabel = st.freshLabel("OR_end");
+        int longWayLabel = st.freshLabel();
+        int endLabel = st.freshLabel();
         left.compile(st);
-        emit("jumpi_z " + longWayLabel);
-        emit("push 1", "jumpi " + endLabel);
-        emit(longWayLabel + ":");
+        emitToLabel(st, OpCode.JUMPI_Z, longWayLabel);
+        emit(st, OpCode.PUSH, 1);
+        emitToLabel(st, OpCode.JUMPI, endLabel);
+        emitLabel(st, longWayLabel);
         right.compile(st);
-        emit("test_z", "test_z");
-        emit(endLabel + ":");
+        emit(st, OpCode.TEST_Z, OpCode.TEST_Z);
+        emitLabel(st, endLabel);
+    }
+
+    @Override
+    public void compileCondition(SymbolTable st, int trueLabel, int falseLabel) {
+        int shortCutLabel = trueLabel != FALL_THROUGH ? trueLabel : st.freshLabel();
+        left.compileCondition(st, shortCutLabel, FALL_THROUGH);
+        right.compileCondition(st, trueLabel, falseLabel);
+        if (trueLabel == FALL_THROUGH) {
+            emitLabel(st, shortCutLabel);
+        }
     }
 
     @Override
@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpPlus extends Exp {
 
@@ -15,7 +16,7 @@ public class ExpPlus extends Exp {
     public void compile(SymbolTable st) {
         left.compile(st);
         right.compile(st);
-        emit("add");
+        emit(st, OpCode.ADD);
     }
 
     @Override
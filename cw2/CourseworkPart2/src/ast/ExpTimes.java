@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class ExpTimes extends Exp {
 
@@ -15,7 +16,7 @@ public class ExpTimes extends Exp {
     public void compile(SymbolTable st) {
         left.compile(st);
         right.compile(st);
-        emit("mul");
+        emit(st, OpCode.MUL);
     }
 
     @Override
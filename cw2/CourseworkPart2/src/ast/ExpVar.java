@@ -1,12 +1,7 @@
 package ast;
 
-import compile.VarInfo;
 import compile.SymbolTable;
 
-import java.util.Objects;
-
-import static compile.SymbolTable.*;
-
 public class ExpVar extends Exp {
 
     public final String varName;
@@ -17,27 +12,7 @@ public class ExpVar extends Exp {
 
     @Override
     public void compile(SymbolTable st) {
-        VarInfo i = st.getVarI(varName);
-
-        if(Objects.equals(i.getVarI(), INFO_GLOBALS))
-        {
-            emit("get_dp");
-            emit("push " + i.getOffset());
-            emit("add");
-            emit("load");
-
-        } else if (Objects.equals(i.getVarI(), INFO_LOCALS)) {
-            emit("get_fp");
-            emit("push " + (-4 * i.getOffset()));
-            emit("add");
-            emit("load");
-
-        } else {
-            emit("get_fp");
-            emit("push " + (4 * i.getOffset()));
-            emit("add");
-            emit("load");
-        }
+        emitLoad(st, varName);
     }
 
     @Override
@@ -1,8 +1,11 @@
 package ast;
 
 import compile.SymbolTable;
-import java.util.List;
+import stackmachine.machine.OpCode;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 
 public class MethodDecl extends AST {
     public final String id;
@@ -42,21 +45,147 @@ public class MethodDecl extends AST {
 
 
     /**
-     * Compiles the method body into assembly instructions.
+     * Compiles the method body into assembly instructions. The body is
+     * preceded by a label which tail calls to this method jump to, and only
+     * followed by the implicit return if the end of the body is reachable.
      */
     public void compileBody(SymbolTable st) {
+        if (st.isMemoizedCurrMethod()) {
+            emitMemoLookup(st);
+        }
+        emitLabel(st, st.getMethodBodyLabel(id));
+        if (!isFunction) {
+            Set<StmMethodCall> tailCalls = Collections.newSetFromMap(new IdentityHashMap<>());
+            addTailCalls(body, tailCalls);
+            st.setTailCalls(tailCalls);
+        }
         for (Stm s : body) {
             s.compile(st);
         }
+        if (new StmBlock(body).canCompleteNormally()) {
+            String methodType = isFunction ? "function" : "procedure";
+            emit(st, "// Implicit return for " + methodType + " fallthrough");
+            emit(st, OpCode.PUSH, 0);
+            if (st.isMemoizedCurrMethod()) {
+                emitMemoInsert(st);
+            }
+
+            int numParams = formals.size();
+            int numLocals = locals.size();
+            emit(st, OpCode.PUSH, numParams + numLocals);
+            emit(st, OpCode.RET);
+        }
+    }
+
+    /**
+     * Emit the start of the prologue of a memoized function: if the table has
+     * a result for the arguments, return it at once. Each entry of the table
+     * is a flag, set once the entry is filled, and the result.
+     */
+    private static void emitMemoLookup(SymbolTable st) {
+        int missLabel = st.freshLabel();
+        emit(st, "// memo table lookup");
+        emitMemoRangeCheck(st, missLabel);
+        emitMemoEntry(st);
+        emit(st, OpCode.LOAD);
+        emitToLabel(st, OpCode.JUMPI_Z, missLabel);
+        emitMemoEntry(st);
+        emit(st, OpCode.PUSH, 4);
+        emit(st, OpCode.ADD, OpCode.LOAD);
+        emit(st, OpCode.PUSH, st.getPCountCurrMethod() + st.getLCountCurrMethod());
+        emit(st, OpCode.RET);
+        emitLabel(st, missLabel);
+    }
 
-        String methodType = isFunction ? "function" : "procedure";
-        emit("// Implicit return for " + methodType + " fallthrough");
-        emit("push 0");
+    /**
+     * Emit code which fills the table entry for the arguments of a memoized
+     * function with the result on top of the stack, leaving it there.
+     */
+    static void emitMemoInsert(SymbolTable st) {
+        int doneLabel = st.freshLabel();
+        emit(st, "// memo table insert");
+        emitMemoRangeCheck(st, doneLabel);
+        emitMemoEntry(st);
+        emit(st, OpCode.PUSH, 1);
+        emit(st, OpCode.STORE);
+        emit(st, OpCode.DUP);
+        emitMemoEntry(st);
+        emit(st, OpCode.PUSH, 4);
+        emit(st, OpCode.ADD, OpCode.SWAP, OpCode.STORE);
+        emitLabel(st, doneLabel);
+    }
 
-        int numParams = formals.size();
-        int numLocals = locals.size();
-        emit("push " + (numParams + numLocals));
-        emit("ret");
+    /**
+     * Emit code which jumps to a label unless every argument has an entry in
+     * the table.
+     */
+    private static void emitMemoRangeCheck(SymbolTable st, int outOfRange) {
+        int n = st.getPCountCurrMethod();
+        for (int i = 1; i <= n; i++) {
+            emitParam(st, n, i);
+            emit(st, OpCode.TEST_N, OpCode.TEST_Z);
+            emitToLabel(st, OpCode.JUMPI_Z, outOfRange);
+            emitParam(st, n, i);
+            emit(st, OpCode.PUSH, SymbolTable.memoRange(n));
+            emit(st, OpCode.SUB, OpCode.TEST_N);
+            emitToLabel(st, OpCode.JUMPI_Z, outOfRange);
+        }
+    }
+
+    /**
+     * Emit code which pushes the address of the table entry for the arguments.
+     */
+    private static void emitMemoEntry(SymbolTable st) {
+        int n = st.getPCountCurrMethod();
+        emit(st, OpCode.PUSH, st.getMemoTableLabelCurrMethod());
+        emitParam(st, n, 1);
+        for (int i = 2; i <= n; i++) {
+            emit(st, OpCode.PUSH, SymbolTable.memoRange(n));
+            emit(st, OpCode.MUL);
+            emitParam(st, n, i);
+            emit(st, OpCode.ADD);
+        }
+        emit(st, OpCode.PUSH, 8);
+        emit(st, OpCode.MUL, OpCode.ADD);
+    }
+
+    /**
+     * Emit code which pushes parameter i of n (see MethodsInfo).
+     */
+    private static void emitParam(SymbolTable st, int n, int i) {
+        emit(st, OpCode.GET_FP);
+        emit(st, OpCode.PUSH, 4 * (n - i + 1));
+        emit(st, OpCode.ADD, OpCode.LOAD);
+    }
+
+    /**
+     * Collect the procedure calls which are the last action of a statement
+     * list, so that nothing but the implicit return follows them.
+     */
+    private static void addTailCalls(List<Stm> stms, Set<StmMethodCall> tailCalls) {
+        int last = stms.size() - 1;
+        if (last > 0 && stms.get(last) instanceof StmReturn) {
+            last--;
+        }
+        if (last >= 0) {
+            addTailCalls(stms.get(last), tailCalls);
+        }
+    }
+
+    private static void addTailCalls(Stm stm, Set<StmMethodCall> tailCalls) {
+        if (stm instanceof StmMethodCall) {
+            tailCalls.add((StmMethodCall) stm);
+        } else if (stm instanceof StmBlock) {
+            addTailCalls(((StmBlock) stm).stms, tailCalls);
+        } else if (stm instanceof StmIf) {
+            addTailCalls(((StmIf) stm).trueBranch, tailCalls);
+            addTailCalls(((StmIf) stm).falseBranch, tailCalls);
+        } else if (stm instanceof StmSwitch) {
+            for (StmSwitch.Case c : ((StmSwitch) stm).cases) {
+                addTailCalls(c.stm, tailCalls);
+            }
+            addTailCalls(((StmSwitch) stm).defaultCase, tailCalls);
+        }
     }
 
     /**
@@ -1,12 +1,12 @@
 package ast;
 
-import compile.VarInfo;
+import compile.CompilationContext;
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 import java.util.Collections;
 import java.util.List;
-
-import static compile.SymbolTable.INFO_GLOBALS;
+import java.util.Set;
 
 public class Program extends AST {
 
@@ -21,42 +21,67 @@ public class Program extends AST {
     }
 
     /**
-     * Emit SSM assembly code for this program.
+     * Emit SSM assembly code for this program into a new compilation context.
+     * @return the context holding the code
      */
-    public void compile() {
-        SymbolTable st = new SymbolTable(this);
+    public CompilationContext compile() {
+        CompilationContext cx = new CompilationContext();
+        compile(cx);
+        return cx;
+    }
 
-        for (VarDecl globalVar : varDecls) {
-            VarInfo info = st.getVarI(globalVar.name);
-            if (info != null && info.getVarI() == INFO_GLOBALS) {
-                emit("push 0");
-                emit("get_dp");
-                emit("push " + info.getOffset());
-                emit("add");
-                emit("swap");
-                emit("store");
-            }
-        }
+    /**
+     * Emit SSM assembly code for this program into a compilation context,
+     * in which the functions it names as memoized keep a table of their
+     * results in the data section. If the context streams its code, the
+     * code of the main body and of each method is flushed as soon as it has
+     * been generated.
+     * @param cx the context the code is emitted into
+     */
+    public void compile(CompilationContext cx) {
+        SymbolTable st = new SymbolTable(this, cx);
+        Set<String> memoized = cx.memoized();
 
         for (Stm stm : body) {
             stm.compile(st);
         }
-        emit("halt");
+        if (new StmBlock(body).canCompleteNormally()) {
+            emit(st, OpCode.HALT);
+        }
+        cx.flush();
 
         for (MethodDecl method : methods) {
             String methodLabel = st.getMethodLabel(method.getMethodName());
-            emit(methodLabel + ":");
+            emitLabel(st, methodLabel);
 
             st.enterMethod(method.getMethodName());
 
             int numLocals = st.getLCountCurrMethod();
             if (numLocals > 0) {
-                emit("salloc " + numLocals);
+                emit(st, OpCode.SALLOC, numLocals);
             }
 
             method.compileBody(st);
 
             st.exitMethod();
+            cx.flush();
+        }
+
+        // globals live in labelled data words, initialised to 0
+        List<String> globalNames = st.globalNames();
+        if (!globalNames.isEmpty() || !memoized.isEmpty()) {
+            emit(st, ".data");
+            for (String varName : globalNames) {
+                emitData(st, st.getGlobalLabel(varName), 0);
+            }
+            // memo tables: two words (filled flag and result) per entry
+            for (String methodName : memoized) {
+                String label = st.getMemoTableLabel(methodName);
+                emitData(st, label, 0);
+                for (int w = 1; w < 2 * st.getMemoTableSize(methodName); w++) {
+                    emitData(st, label + "_" + w, 0);
+                }
+            }
         }
     }
 
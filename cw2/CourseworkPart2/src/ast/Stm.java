@@ -14,4 +14,13 @@ public abstract class Stm extends AST {
      */
     public abstract void compile(SymbolTable st);
 
+    /**
+     * Can execution continue with the statement following this one? This
+     * is false for statements which always return (or halt, in the main
+     * body) or loop forever, so code following them is unreachable.
+     */
+    public boolean canCompleteNormally() {
+        return true;
+    }
+
 }
@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 import java.util.List;
 
@@ -9,9 +10,9 @@ import java.util.List;
  * For example: arr[i][j] = expression;
  */
 public class StmArrayAssign extends Stm {
-    private final String id;
-    private final List<Exp> indexers;
-    private final Exp value;
+    public final String id;
+    public final List<Exp> indexers;
+    public final Exp value;
 
 
     public StmArrayAssign(String id, List<Exp> indexers, Exp value) {
@@ -38,7 +39,7 @@ public class StmArrayAssign extends Stm {
     @Override
     public void compile(SymbolTable st) {
 
-        emit("load " + id);
+        emit(st, OpCode.LOAD, id);
 
 
         for (int i = 0; i < indexers.size(); i++) {
@@ -48,21 +49,24 @@ public class StmArrayAssign extends Stm {
 
             if (i < indexers.size() - 1) {
                 // For all but the last dimension, we need to load the sub-array
-                emit("array_deref");
+                emit(st, "array_deref");
             }
 
-            emit("array_index");
+            emit(st, "array_index");
         }
 
-        emit("store_addr temp_array_addr");
+        emit(st, "store_addr temp_array_addr");
 
         value.compile(st);
 
 
-        emit("load_addr temp_array_addr");
+        emit(st, "load_addr temp_array_addr");
 
 
-        emit("array_store");
+        emit(st, "array_store");
     }
 
-}
\ No newline at end of file
+    @Override
+    public <T> T accept(ast.util.Visitor<T> visitor) { return visitor.visit(this); }
+
+}
@@ -2,10 +2,6 @@ package ast;
 
 import compile.SymbolTable;
 
-import java.util.Objects;
-
-import static compile.SymbolTable.*;
-
 public class StmAssign extends Stm {
 
     public final String varName;
@@ -18,28 +14,7 @@ public class StmAssign extends Stm {
 
     @Override
     public void compile(SymbolTable st) {
-        exp.compile(st);
-
-        if(Objects.equals(st.getVarI(varName).getVarI(), INFO_GLOBALS)) {
-            emit("get_dp");
-            emit("push " + st.getVarI(varName).getOffset());
-            emit("add");
-            emit("swap");
-            emit("store");
-        }else if(Objects.equals(st.getVarI(varName).getVarI(), INFO_LOCALS)) {
-            emit("get_fp");
-            emit("push " + (-4 * st.getVarI(varName).getOffset()));
-            emit("add");
-            emit("swap");
-            emit("store");
-        }else {
-            emit("get_fp");
-            emit("push " + (4 * st.getVarI(varName).getOffset()));
-            emit("add");
-            emit("swap");
-            emit("store");
-        }
-
+        emitStore(st, varName, exp);
     }
 
     @Override
@@ -24,6 +24,14 @@ public class StmBlock extends Stm {
         }
     }
 
+    @Override
+    public boolean canCompleteNormally() {
+        for (Stm stm: stms) {
+            if (!stm.canCompleteNormally()) return false;
+        }
+        return true;
+    }
+
     @Override
     public <T> T accept(ast.util.Visitor<T> visitor) { return visitor.visit(this); }
 }
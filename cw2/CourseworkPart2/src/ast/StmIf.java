@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class StmIf extends Stm {
 
@@ -16,18 +17,22 @@ public class StmIf extends Stm {
 
     @Override
     public void compile(SymbolTable st) {
-        String ifFalseLabel = st.freshLabel("if_false");
-        String ifEndLabel = st.freshLabel("if_end");
-        emit("// if-condition");
-        exp.compile(st);
-        emit("jumpi_z " + ifFalseLabel);
-        emit("// true-branch");
+        int ifFalseLabel = st.freshLabel();
+        int ifEndLabel = st.freshLabel();
+        emit(st, "// if-condition");
+        exp.compileCondition(st, Exp.FALL_THROUGH, ifFalseLabel);
+        emit(st, "// true-branch");
         trueBranch.compile(st);
-        emit("jumpi " + ifEndLabel);
-        emit(ifFalseLabel + ":");
-        emit("// false-branch");
+        emitToLabel(st, OpCode.JUMPI, ifEndLabel);
+        emitLabel(st, ifFalseLabel);
+        emit(st, "// false-branch");
         falseBranch.compile(st);
-        emit(ifEndLabel + ":");
+        emitLabel(st, ifEndLabel);
+    }
+
+    @Override
+    public boolean canCompleteNormally() {
+        return trueBranch.canCompleteNormally() || falseBranch.canCompleteNormally();
     }
 
     @Override
@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 import java.util.List;
 import java.util.Collections;
 
@@ -15,16 +16,20 @@ public class StmMethodCall extends Stm {
 
     @Override
     public void compile(SymbolTable st) {
+        if (st.isTailCall(this) && st.getMethodRetType(id) == null && st.canTailCall(id)) {
+            // the last action of a procedure: reuse its frame for the callee
+            ExpMethodCall.emitTailCall(st, id, actuals);
+            return;
+        }
         for (Exp arg : actuals) {
             arg.compile(st);
         }
-        emit("push " + actuals.size());
+        emit(st, OpCode.PUSH, actuals.size());
         String methodLabel = st.getMethodLabel(id);
-        emit("calli " + methodLabel);
+        emit(st, OpCode.CALLI, methodLabel);
 
-        if (st.getMethodRetType(id) != null) {
-            emit("pop");
-        }
+        // procedures return 0 too, and the value is never used
+        emit(st, OpCode.POP);
     }
 
     @Override
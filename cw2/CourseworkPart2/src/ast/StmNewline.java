@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class StmNewline extends Stm {
 
@@ -8,7 +9,7 @@ public class StmNewline extends Stm {
 
     @Override
     public void compile(SymbolTable st) {
-        emit("sysc OUT_LN");
+        emit(st, OpCode.SYSC, "OUT_LN");
     }
 
     @Override
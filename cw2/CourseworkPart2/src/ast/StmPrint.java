@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class StmPrint extends Stm {
 
@@ -13,7 +14,7 @@ public class StmPrint extends Stm {
     @Override
     public void compile(SymbolTable st) {
         exp.compile(st);
-        emit("sysc OUT_DEC");
+        emit(st, OpCode.SYSC, "OUT_DEC");
     }
 
     @Override
@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class StmPrintChar extends Stm {
 
@@ -13,7 +14,7 @@ public class StmPrintChar extends Stm {
     @Override
     public void compile(SymbolTable st) {
         exp.compile(st);
-        emit("sysc OUT_CHAR");
+        emit(st, OpCode.SYSC, "OUT_CHAR");
     }
 
     @Override
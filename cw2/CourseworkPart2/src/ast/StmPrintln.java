@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class StmPrintln extends Stm {
 
@@ -13,7 +14,8 @@ public class StmPrintln extends Stm {
     @Override
     public void compile(SymbolTable st) {
         exp.compile(st);
-        emit("sysc OUT_DEC", "sysc OUT_LN");
+        emit(st, OpCode.SYSC, "OUT_DEC");
+        emit(st, OpCode.SYSC, "OUT_LN");
     }
 
     @Override
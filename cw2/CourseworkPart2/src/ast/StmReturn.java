@@ -1,6 +1,7 @@
 package ast;
 
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class StmReturn extends Stm {
     public final Exp exp;
@@ -11,24 +12,34 @@ public class StmReturn extends Stm {
 
     @Override
     public void compile(SymbolTable st) {
-        if (st.isInMethod()) {
+        if (exp instanceof ExpMethodCall && st.canTailCall(((ExpMethodCall) exp).methodName)) {
+            ((ExpMethodCall) exp).compileTailCall(st);
+        } else if (st.isInMethod()) {
             if (exp != null) {
                 exp.compile(st);
             } else {
-                emit("push 0");
+                emit(st, OpCode.PUSH, 0);
+            }
+            if (st.isMemoizedCurrMethod()) {
+                MethodDecl.emitMemoInsert(st);
             }
 
             int numParams = st.getPCountCurrMethod();
             int numLocals = st.getLCountCurrMethod();
-            emit("push " + (numParams + numLocals));
+            emit(st, OpCode.PUSH, numParams + numLocals);
 
-            emit("ret");
+            emit(st, OpCode.RET);
         } else {
-            emit("halt");
+            emit(st, OpCode.HALT);
         }
     }
 
 
+    @Override
+    public boolean canCompleteNormally() {
+        return false;
+    }
+
     @Override
     public <T> T accept(ast.util.Visitor<T> visitor) {
         return visitor.visit(this);
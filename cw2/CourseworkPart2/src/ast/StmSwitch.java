@@ -2,11 +2,34 @@ package ast;
 
 import compile.StaticAnalysisException;
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 import java.util.*;
 
 public class StmSwitch extends Stm {
 
+    /**
+     * Switches with fewer distinct cases than this are never compiled to a
+     * jump table.
+     */
+    public static final int MIN_TABLE_CASES = 5;
+
+    /**
+     * The largest number of jump-table entries allowed per distinct case.
+     */
+    public static final int MAX_TABLE_SPREAD = 2;
+
+    /**
+     * The largest number of cases tested one after another at a leaf of a
+     * decision tree.
+     */
+    public static final int TREE_LEAF_CASES = 2;
+
+    /**
+     * The ways in which a switch statement can be lowered.
+     */
+    public enum Strategy { LINEAR, TREE, TABLE }
+
     public final Exp caseExp;
     public final Stm defaultCase;
     public final List<Case> cases;
@@ -19,29 +42,244 @@ public class StmSwitch extends Stm {
 
     @Override
     public void compile(SymbolTable st) {
+        SortedMap<Integer, Case> guards = distinctCases();
+        switch (strategy(guards)) {
+            case TABLE:
+                compileJumpTable(st, guards);
+                break;
+            case TREE:
+                compileDecisionTree(st, guards);
+                break;
+            default:
+                compileLinear(st);
+        }
+    }
+
+    /**
+     * Choose the lowering with the smallest average number of instructions
+     * executed to reach the selected case, counting each distinct case and
+     * the default case as equally likely. A jump table is only considered
+     * when the case numbers are dense enough to keep the table small, and a
+     * decision tree only when it has more than one leaf.
+     */
+    private Strategy strategy(SortedMap<Integer, Case> guards) {
+        int n = guards.size();
+        Strategy best = Strategy.LINEAR;
+        double bestCost = linearCost(guards);
+        if (n > TREE_LEAF_CASES && tableSize(guards) <= Integer.MAX_VALUE) {
+            double[] tree = treeCost(keys(guards), 0, n - 1);
+            double cost = (tree[0] + tree[1]) / (n + 1);
+            if (cost < bestCost) {
+                best = Strategy.TREE;
+                bestCost = cost;
+            }
+        }
+        if (n >= MIN_TABLE_CASES && tableSize(guards) <= (long) MAX_TABLE_SPREAD * n) {
+            // 18 instructions to reach a case, 7 or 11 to reach the default
+            double cost = (18.0 * n + 9) / (n + 1);
+            if (cost < bestCost) {
+                best = Strategy.TABLE;
+            }
+        }
+        return best;
+    }
+
+    private double linearCost(SortedMap<Integer, Case> guards) {
+        // 5 instructions per failed test, plus a pop once a case matches
+        double total = 5 * cases.size() + 1;
+        for (Case c : guards.values()) {
+            total += 5 * (cases.indexOf(c) + 1) + 1;
+        }
+        return total / (guards.size() + 1);
+    }
+
+    /**
+     * The cost of a decision tree over keys[lo..hi]: the total number of
+     * instructions executed to reach each of its cases, and the number
+     * executed to reach the default case.
+     */
+    private static double[] treeCost(int[] keys, int lo, int hi) {
+        int n = hi - lo + 1;
+        if (n <= TREE_LEAF_CASES) {
+            // 4 instructions per equality test, then a pop (and a jumpi for the default)
+            double total = 0;
+            for (int j = 1; j <= n; ++j) {
+                total += 4 * j + 1;
+            }
+            return new double[]{total, 4 * n + 2};
+        }
+        int mid = (lo + hi + 1) / 2;
+        double[] lower = treeCost(keys, lo, mid - 1);
+        double[] upper = treeCost(keys, mid, hi);
+        // 5 instructions for the comparison at this node
+        return new double[]{lower[0] + upper[0] + 5 * n, (lower[1] + upper[1]) / 2 + 5};
+    }
+
+    private static int[] keys(SortedMap<Integer, Case> guards) {
+        int[] keys = new int[guards.size()];
+        int i = 0;
+        for (int k : guards.keySet()) keys[i++] = k;
+        return keys;
+    }
+
+    /**
+     * The cases which can actually be selected, keyed by case number. Only
+     * the first case for each number is kept, since later cases repeating an
+     * earlier guard can never match.
+     */
+    private SortedMap<Integer, Case> distinctCases() {
+        SortedMap<Integer, Case> guards = new TreeMap<>();
+        for (Case c : cases) {
+            guards.putIfAbsent(c.caseNumber, c);
+        }
+        return guards;
+    }
+
+    private static long tableSize(SortedMap<Integer, Case> guards) {
+        return (long) guards.lastKey() - guards.firstKey() + 1;
+    }
+
+    /**
+     * Test the switch-value against each case in turn.
+     */
+    private void compileLinear(SymbolTable st) {
         int caseCount = cases.size();
-        String[] caseLabels = new String[caseCount + 1];
+        int[] caseLabels = new int[caseCount + 1];
         for (int i = 0; i < caseCount; ++i) {
-            caseLabels[i] = st.freshLabel("case_number_" + i);
+            caseLabels[i] = st.freshLabel();
         }
-        caseLabels[caseCount] = st.freshLabel("default");
-        String endLabel = st.freshLabel("switch_end");
+        caseLabels[caseCount] = st.freshLabel();
+        int endLabel = st.freshLabel();
         caseExp.compile(st);
         for (int i = 0; i < caseCount; ++i) {
             Case thisCase = cases.get(i);
-            emit(caseLabels[i] + ":");
-            emit("dup"); // duplicate the switch-value in case this case does NOT match
-            emit("push " + thisCase.caseNumber);
-            emit("sub", "test_z");
-            emit("jumpi_z " + caseLabels[i+1]);
-            emit("pop"); // this case matched; the switch-value is not needed any more
+            emitLabel(st, caseLabels[i]);
+            emit(st, OpCode.DUP); // duplicate the switch-value in case this case does NOT match
+            emit(st, OpCode.PUSH, thisCase.caseNumber);
+            emit(st, OpCode.SUB, OpCode.TEST_Z);
+            emitToLabel(st, OpCode.JUMPI_Z, caseLabels[i+1]);
+            emit(st, OpCode.POP); // this case matched; the switch-value is not needed any more
             thisCase.stm.compile(st);
-            emit("jumpi " + endLabel);
+            emitToLabel(st, OpCode.JUMPI, endLabel);
+        }
+        emitLabel(st, caseLabels[caseCount]);
+        emit(st, OpCode.POP); // the default case has been reached; the switch-value is not needed any more
+        defaultCase.compile(st);
+        emitLabel(st, endLabel);
+    }
+
+    /**
+     * Range-check the switch-value and then jump indirectly through a table
+     * with one jumpi per value between the smallest and largest case number.
+     * The size of a table entry is taken from the distance between the
+     * first two entries, so it does not depend on the instruction encoding.
+     */
+    private void compileJumpTable(SymbolTable st, SortedMap<Integer, Case> guards) {
+        int min = guards.firstKey();
+        int size = (int) tableSize(guards);
+        int upperCheckLabel = st.freshLabel();
+        int outOfRangeLabel = st.freshLabel();
+        int defaultLabel = st.freshLabel();
+        int endLabel = st.freshLabel();
+        int[] entryLabels = new int[size];
+        for (int i = 0; i < size; ++i) {
+            entryLabels[i] = st.freshLabel();
+        }
+        Map<Case, Integer> caseLabels = new LinkedHashMap<>();
+        for (Case c : guards.values()) {
+            caseLabels.put(c, st.freshLabel());
         }
-        emit(caseLabels[caseCount] + ":");
-        emit("pop"); // the default case has been reached; the switch-value is not needed any more
+
+        caseExp.compile(st);
+        emit(st, OpCode.PUSH, min);
+        emit(st, OpCode.SUB); // index into the table
+        emit(st, OpCode.DUP, OpCode.TEST_N);
+        emitToLabel(st, OpCode.JUMPI_Z, upperCheckLabel);
+        emitToLabel(st, OpCode.JUMPI, outOfRangeLabel);
+        emitLabel(st, upperCheckLabel);
+        emit(st, OpCode.DUP);
+        emit(st, OpCode.PUSH, size);
+        emit(st, OpCode.SUB, OpCode.TEST_N);
+        emitToLabel(st, OpCode.JUMPI_Z, outOfRangeLabel);
+        emitToLabel(st, OpCode.PUSH, entryLabels[1]);
+        emitToLabel(st, OpCode.PUSH, entryLabels[0]);
+        emit(st, OpCode.SUB, OpCode.MUL);
+        emitToLabel(st, OpCode.PUSH, entryLabels[0]);
+        emit(st, OpCode.ADD);
+        emit(st, OpCode.JUMP);
+        for (int i = 0; i < size; ++i) {
+            Case c = guards.get(min + i);
+            emitKeptLabel(st, entryLabels[i]);
+            emitToLabel(st, OpCode.JUMPI, c == null ? defaultLabel : caseLabels.get(c));
+        }
+        for (Map.Entry<Case, Integer> entry : caseLabels.entrySet()) {
+            emitLabel(st, entry.getValue());
+            entry.getKey().stm.compile(st);
+            emitToLabel(st, OpCode.JUMPI, endLabel);
+        }
+        emitLabel(st, outOfRangeLabel);
+        emit(st, OpCode.POP); // the index is not needed by the default case
+        emitLabel(st, defaultLabel);
         defaultCase.compile(st);
-        emit(endLabel + ":");
+        emitLabel(st, endLabel);
+    }
+
+    /**
+     * Binary search over the sorted case numbers with one less-than test per
+     * level, switching to equality tests once only a few cases remain. The
+     * switch-value stays on the stack until a case or the default is
+     * selected. Only used when the case numbers span less than 2^31, so that
+     * none of the less-than tests can overflow for a value that is a case.
+     */
+    private void compileDecisionTree(SymbolTable st, SortedMap<Integer, Case> guards) {
+        int defaultLabel = st.freshLabel();
+        int endLabel = st.freshLabel();
+        Map<Integer, Integer> caseLabels = new LinkedHashMap<>();
+        for (int k : guards.keySet()) {
+            caseLabels.put(k, st.freshLabel());
+        }
+        caseExp.compile(st);
+        compileTreeNode(st, keys(guards), 0, guards.size() - 1, caseLabels, defaultLabel);
+        for (Map.Entry<Integer, Integer> entry : caseLabels.entrySet()) {
+            emitLabel(st, entry.getValue());
+            emit(st, OpCode.POP); // a case matched; the switch-value is not needed any more
+            guards.get(entry.getKey()).stm.compile(st);
+            emitToLabel(st, OpCode.JUMPI, endLabel);
+        }
+        emitLabel(st, defaultLabel);
+        emit(st, OpCode.POP); // the default case has been reached; the switch-value is not needed any more
+        defaultCase.compile(st);
+        emitLabel(st, endLabel);
+    }
+
+    private void compileTreeNode(SymbolTable st, int[] keys, int lo, int hi, Map<Integer, Integer> caseLabels, int defaultLabel) {
+        if (hi - lo + 1 <= TREE_LEAF_CASES) {
+            for (int i = lo; i <= hi; ++i) {
+                emit(st, OpCode.DUP);
+                emit(st, OpCode.PUSH, keys[i]);
+                emit(st, OpCode.SUB);
+                emitToLabel(st, OpCode.JUMPI_Z, caseLabels.get(keys[i]));
+            }
+            emitToLabel(st, OpCode.JUMPI, defaultLabel);
+        } else {
+            int mid = (lo + hi + 1) / 2;
+            int upperLabel = st.freshLabel();
+            emit(st, OpCode.DUP);
+            emit(st, OpCode.PUSH, keys[mid]);
+            emit(st, OpCode.SUB, OpCode.TEST_N);
+            emitToLabel(st, OpCode.JUMPI_Z, upperLabel);
+            compileTreeNode(st, keys, lo, mid - 1, caseLabels, defaultLabel);
+            emitLabel(st, upperLabel);
+            compileTreeNode(st, keys, mid, hi, caseLabels, defaultLabel);
+        }
+    }
+
+    @Override
+    public boolean canCompleteNormally() {
+        for (Case c : cases) {
+            if (c.stm.canCompleteNormally()) return true;
+        }
+        return defaultCase.canCompleteNormally();
     }
 
     public static class Case {
@@ -2,6 +2,7 @@ package ast;
 
 import compile.StaticAnalysisException;
 import compile.SymbolTable;
+import stackmachine.machine.OpCode;
 
 public class StmWhile extends Stm {
 
@@ -16,16 +17,21 @@ public class StmWhile extends Stm {
 
     @Override
     public void compile(SymbolTable st) {
-        String loopStartLabel = st.freshLabel("while_start");
-        String loopEndLabel = st.freshLabel("while_end");
-        emit(loopStartLabel + ":");
-        emit("// while-condition");
-        exp.compile(st);
-        emit("jumpi_z " + loopEndLabel);
-        emit("// while-body");
+        int loopStartLabel = st.freshLabel();
+        int loopEndLabel = st.freshLabel();
+        emitLabel(st, loopStartLabel);
+        emit(st, "// while-condition");
+        exp.compileCondition(st, Exp.FALL_THROUGH, loopEndLabel);
+        emit(st, "// while-body");
         body.compile(st);
-        emit("jumpi " + loopStartLabel);
-        emit(loopEndLabel + ":");
+        emitToLabel(st, OpCode.JUMPI, loopStartLabel);
+        emitLabel(st, loopEndLabel);
+    }
+
+    @Override
+    public boolean canCompleteNormally() {
+        // there is no break statement, so a loop on a non-zero constant never ends
+        return !(exp instanceof ExpInt && ((ExpInt) exp).value != 0);
     }
 
     @Override
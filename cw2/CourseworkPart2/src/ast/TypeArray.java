@@ -7,5 +7,9 @@ public class TypeArray extends Type{
             this.elementType = elementType;
         }
 
+    public Type getElementType() {
+        return elementType;
+    }
+
     public <T> T accept(ast.util.Visitor<T> visitor) { return visitor.visit(this); }
 }
@@ -0,0 +1,217 @@
+package ast.util;
+
+import ast.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A visitor which rebuilds an AST bottom-up. Each visit method returns a
+ * copy of the visited node with its children rewritten, so an AST-to-AST
+ * pass only needs to override the visit methods for the nodes it changes.
+ * Declarations and types are shared with the original tree.
+ */
+public class TreeRewriter extends VisitorAdapter<AST> {
+
+    public Exp rewrite(Exp exp) {
+        return exp == null ? null : (Exp) exp.accept(this);
+    }
+
+    public Stm rewrite(Stm stm) {
+        return (Stm) stm.accept(this);
+    }
+
+    public List<Exp> rewriteExps(List<Exp> exps) {
+        List<Exp> result = new ArrayList<>(exps.size());
+        for (Exp exp : exps) result.add(rewrite(exp));
+        return result;
+    }
+
+    public List<Stm> rewriteStms(List<Stm> stms) {
+        List<Stm> result = new ArrayList<>(stms.size());
+        for (Stm stm : stms) result.add(rewrite(stm));
+        return result;
+    }
+
+    public Program rewrite(Program program) {
+        return (Program) program.accept(this);
+    }
+
+    public MethodDecl rewrite(MethodDecl method) {
+        return (MethodDecl) method.accept(this);
+    }
+
+    @Override
+    public AST visit(ExpTimes expTimes) {
+        return new ExpTimes(rewrite(expTimes.left), rewrite(expTimes.right));
+    }
+
+    @Override
+    public AST visit(ExpPlus expPlus) {
+        return new ExpPlus(rewrite(expPlus.left), rewrite(expPlus.right));
+    }
+
+    @Override
+    public AST visit(ExpMinus expMinus) {
+        return new ExpMinus(rewrite(expMinus.left), rewrite(expMinus.right));
+    }
+
+    @Override
+    public AST visit(ExpDiv expDiv) {
+        return new ExpDiv(rewrite(expDiv.left), rewrite(expDiv.right));
+    }
+
+    @Override
+    public AST visit(ExpLessThan expLessThan) {
+        return new ExpLessThan(rewrite(expLessThan.left), rewrite(expLessThan.right));
+    }
+
+    @Override
+    public AST visit(ExpLessThanEqual expLessThanEqual) {
+        return new ExpLessThanEqual(rewrite(expLessThanEqual.left), rewrite(expLessThanEqual.right));
+    }
+
+    @Override
+    public AST visit(ExpEqual expEqual) {
+        return new ExpEqual(rewrite(expEqual.left), rewrite(expEqual.right));
+    }
+
+    @Override
+    public AST visit(ExpAnd expAnd) {
+        return new ExpAnd(rewrite(expAnd.left), rewrite(expAnd.right));
+    }
+
+    @Override
+    public AST visit(ExpOr expOr) {
+        return new ExpOr(rewrite(expOr.left), rewrite(expOr.right));
+    }
+
+    @Override
+    public AST visit(ExpInt expInt) {
+        return expInt;
+    }
+
+    @Override
+    public AST visit(ExpNot expNot) {
+        return new ExpNot(rewrite(expNot.e));
+    }
+
+    @Override
+    public AST visit(ExpVar expVar) {
+        return expVar;
+    }
+
+    @Override
+    public AST visit(ExpArrayAccess expArrayAccess) {
+        return new ExpArrayAccess(expArrayAccess.id, rewriteExps(expArrayAccess.indexers));
+    }
+
+    @Override
+    public AST visit(ExpMethodCall expMethodCall) {
+        return new ExpMethodCall(expMethodCall.methodName, rewriteExps(expMethodCall.arguments));
+    }
+
+    @Override
+    public AST visit(ExpNewArray expNewArray) {
+        return new ExpNewArray(expNewArray.baseType, rewriteExps(expNewArray.dimensions));
+    }
+
+    @Override
+    public AST visit(ExpArrayLength expArrayLength) {
+        return new ExpArrayLength(rewrite(expArrayLength.array));
+    }
+
+    @Override
+    public AST visit(Program program) {
+        List<MethodDecl> methods = new ArrayList<>(program.methods.size());
+        for (MethodDecl method : program.methods) methods.add(rewrite(method));
+        return new Program(program.varDecls, rewriteStms(program.body), methods);
+    }
+
+    @Override
+    public AST visit(MethodDecl methodDecl) {
+        return new MethodDecl(methodDecl.id, methodDecl.returnType, methodDecl.formals, methodDecl.locals,
+                rewriteStms(methodDecl.body));
+    }
+
+    @Override
+    public AST visit(StmAssign stmAssign) {
+        return new StmAssign(stmAssign.varName, rewrite(stmAssign.exp));
+    }
+
+    @Override
+    public AST visit(StmArrayAssign stmArrayAssign) {
+        return new StmArrayAssign(stmArrayAssign.id, rewriteExps(stmArrayAssign.indexers),
+                rewrite(stmArrayAssign.value));
+    }
+
+    @Override
+    public AST visit(StmBlock stmBlock) {
+        return new StmBlock(rewriteStms(stmBlock.stms));
+    }
+
+    @Override
+    public AST visit(StmIf stmIf) {
+        return new StmIf(rewrite(stmIf.exp), rewrite(stmIf.trueBranch), rewrite(stmIf.falseBranch));
+    }
+
+    @Override
+    public AST visit(StmNewline stmNewline) {
+        return stmNewline;
+    }
+
+    @Override
+    public AST visit(StmPrint stmPrint) {
+        return new StmPrint(rewrite(stmPrint.exp));
+    }
+
+    @Override
+    public AST visit(StmPrintChar stmPrintChar) {
+        return new StmPrintChar(rewrite(stmPrintChar.exp));
+    }
+
+    @Override
+    public AST visit(StmPrintln stmPrintln) {
+        return new StmPrintln(rewrite(stmPrintln.exp));
+    }
+
+    @Override
+    public AST visit(StmSwitch stmSwitch) {
+        Exp caseExp = rewrite(stmSwitch.caseExp);
+        List<StmSwitch.Case> cases = new ArrayList<>(stmSwitch.cases.size());
+        for (StmSwitch.Case c : stmSwitch.cases) {
+            cases.add(new StmSwitch.Case(c.caseNumber, rewrite(c.stm)));
+        }
+        return new StmSwitch(caseExp, rewrite(stmSwitch.defaultCase), cases);
+    }
+
+    @Override
+    public AST visit(StmWhile stmWhile) {
+        return new StmWhile(rewrite(stmWhile.exp), rewrite(stmWhile.body));
+    }
+
+    @Override
+    public AST visit(StmReturn stmReturn) {
+        return new StmReturn(rewrite(stmReturn.exp));
+    }
+
+    @Override
+    public AST visit(StmMethodCall stmMethodCall) {
+        return new StmMethodCall(stmMethodCall.id, rewriteExps(stmMethodCall.actuals));
+    }
+
+    @Override
+    public AST visit(Type type) {
+        return type;
+    }
+
+    @Override
+    public AST visit(TypeInt typeInt) {
+        return typeInt;
+    }
+
+    @Override
+    public AST visit(VarDecl varDecl) {
+        return varDecl;
+    }
+}
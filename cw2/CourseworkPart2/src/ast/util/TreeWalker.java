@@ -0,0 +1,202 @@
+package ast.util;
+
+import ast.*;
+
+import java.util.List;
+
+/**
+ * A visitor which walks every node of an AST, visiting children in source order.
+ * Analyses override the visit methods for the nodes they are interested in
+ * and call the inherited method to carry on walking below them.
+ */
+public class TreeWalker extends VisitorAdapter<Void> {
+
+    public void walk(AST node) {
+        if (node != null) node.accept(this);
+    }
+
+    public void walk(List<? extends AST> nodes) {
+        for (AST node : nodes) walk(node);
+    }
+
+    @Override
+    public Void visit(ExpTimes expTimes) {
+        walk(expTimes.left);
+        walk(expTimes.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpPlus expPlus) {
+        walk(expPlus.left);
+        walk(expPlus.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpMinus expMinus) {
+        walk(expMinus.left);
+        walk(expMinus.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpDiv expDiv) {
+        walk(expDiv.left);
+        walk(expDiv.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpLessThan expLessThan) {
+        walk(expLessThan.left);
+        walk(expLessThan.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpLessThanEqual expLessThanEqual) {
+        walk(expLessThanEqual.left);
+        walk(expLessThanEqual.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpEqual expEqual) {
+        walk(expEqual.left);
+        walk(expEqual.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpAnd expAnd) {
+        walk(expAnd.left);
+        walk(expAnd.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpOr expOr) {
+        walk(expOr.left);
+        walk(expOr.right);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpNot expNot) {
+        walk(expNot.e);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpArrayAccess expArrayAccess) {
+        walk(expArrayAccess.indexers);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpMethodCall expMethodCall) {
+        walk(expMethodCall.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpNewArray expNewArray) {
+        walk(expNewArray.dimensions);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExpArrayLength expArrayLength) {
+        walk(expArrayLength.array);
+        return null;
+    }
+
+    @Override
+    public Void visit(Program program) {
+        walk(program.varDecls);
+        walk(program.body);
+        walk(program.methods);
+        return null;
+    }
+
+    @Override
+    public Void visit(MethodDecl methodDecl) {
+        walk(methodDecl.formals);
+        walk(methodDecl.locals);
+        walk(methodDecl.body);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmAssign stmAssign) {
+        walk(stmAssign.exp);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmArrayAssign stmArrayAssign) {
+        walk(stmArrayAssign.indexers);
+        walk(stmArrayAssign.value);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmBlock stmBlock) {
+        walk(stmBlock.stms);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmIf stmIf) {
+        walk(stmIf.exp);
+        walk(stmIf.trueBranch);
+        walk(stmIf.falseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmPrint stmPrint) {
+        walk(stmPrint.exp);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmPrintChar stmPrintChar) {
+        walk(stmPrintChar.exp);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmPrintln stmPrintln) {
+        walk(stmPrintln.exp);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmSwitch stmSwitch) {
+        walk(stmSwitch.caseExp);
+        for (StmSwitch.Case c : stmSwitch.cases) walk(c.stm);
+        walk(stmSwitch.defaultCase);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmWhile stmWhile) {
+        walk(stmWhile.exp);
+        walk(stmWhile.body);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmReturn stmReturn) {
+        walk(stmReturn.exp);
+        return null;
+    }
+
+    @Override
+    public Void visit(StmMethodCall stmMethodCall) {
+        walk(stmMethodCall.actuals);
+        return null;
+    }
+}
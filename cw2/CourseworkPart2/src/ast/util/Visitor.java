@@ -60,5 +60,6 @@ public interface Visitor<T> {
     T visit(ExpNewArray expNewArray);
     T visit(ExpArrayLength expArrayLength);
     T visit(MethodDecl methodDecl);
+    T visit(StmArrayAssign stmArrayAssign);
 
 }
@@ -158,6 +158,10 @@ public class VisitorAdapter<T> implements Visitor<T> {
     public T visit(MethodDecl methodDecl) {
         return null;
     }
+    @Override
+    public T visit(StmArrayAssign stmArrayAssign) {
+        return null;
+    }
 
 
 
@@ -0,0 +1,160 @@
+package compile;
+
+import ir.Instruction;
+import ir.InstructionBuffer;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Everything which belongs to one compilation of a program: the code
+ * emitted so far, the counter for fresh labels and the options which
+ * affect code generation. Nothing is shared between contexts, so programs
+ * can be compiled concurrently, each with its own context.
+ * A context opened on a file streams the code: Program.compile flushes
+ * the code of the main body and of each method to the file as soon as it
+ * has been generated, so the buffer only ever holds one method.
+ */
+public class CompilationContext implements Closeable {
+
+    private final InstructionBuffer code = new InstructionBuffer();
+    private final Set<String> memoized;
+    private int scopeCount;
+    private int labelCount;
+
+    /** the channel the code is streamed to, or null if it is kept until written */
+    private FileChannel channel;
+    private Writer writer;
+    /** the passes run over each part of the code as it is streamed */
+    private List<UnaryOperator<List<Instruction>>> streamPasses = List.of();
+
+    /**
+     * A context for a compilation with the default options.
+     */
+    public CompilationContext() {
+        this(Set.of());
+    }
+
+    /**
+     * A context for a compilation in which some functions keep a table of
+     * their results.
+     * @param memoized the names of the memoized functions (see
+     *                 PureFunctions.memoizable)
+     */
+    public CompilationContext(Set<String> memoized) {
+        this.memoized = Collections.unmodifiableSet(new LinkedHashSet<>(memoized));
+    }
+
+    /**
+     * A context which streams the code to a file (replacing its contents)
+     * as it is flushed.
+     * @param path a path to the file where the assembly code is to be written
+     * @param memoized the names of the memoized functions
+     * @param passes the passes run, in order, over each part of the code
+     *               (the main body or a method) before it is written
+     */
+    public static CompilationContext open(Path path, Set<String> memoized,
+                                          List<UnaryOperator<List<Instruction>>> passes) throws IOException {
+        CompilationContext cx = new CompilationContext(memoized);
+        cx.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        cx.writer = Channels.newWriter(cx.channel, StandardCharsets.UTF_8);
+        cx.streamPasses = List.copyOf(passes);
+        return cx;
+    }
+
+    /**
+     * The code emitted so far.
+     */
+    public InstructionBuffer code() {
+        return code;
+    }
+
+    /**
+     * The names of the functions which keep a table of their results.
+     */
+    public Set<String> memoized() {
+        return memoized;
+    }
+
+    /**
+     * Start a new scope of numbered labels, for the code of a method.
+     */
+    public void enterScope() {
+        code.enterScope(++scopeCount);
+        labelCount = 0;
+    }
+
+    /**
+     * Generates a numbered label which is different from every other label
+     * generated in the current scope (see InstructionBuffer).
+     */
+    public int freshLabel() {
+        return labelCount++;
+    }
+
+    /**
+     * Replace the emitted code with the result of running it through an
+     * optimization pass, which takes the instructions straight from the
+     * buffer (see InstructionBuffer.instructions).
+     * @param pass the pass to apply to the emitted code
+     */
+    public void optimize(UnaryOperator<List<Instruction>> pass) {
+        code.setInstructions(pass.apply(code.instructions()));
+    }
+
+    /**
+     * Write the emitted code to a file, in one pass over the instruction
+     * buffer, and clear the buffer.
+     * @param path a path to the file where the assembly code is to be written
+     */
+    public void write(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            code.writeTo(writer);
+        }
+        code.clear();
+    }
+
+    /**
+     * If the code is streamed, write the code emitted since the last flush
+     * and clear the buffer; otherwise do nothing.
+     * @throws UncheckedIOException if the code cannot be written
+     */
+    public void flush() {
+        if (channel == null) return;
+        for (UnaryOperator<List<Instruction>> pass : streamPasses) optimize(pass);
+        try {
+            code.writeTo(writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        code.clear();
+    }
+
+    /**
+     * Flush the rest of the code and close the file it is streamed to.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            writer.close();
+            channel = null;
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package compile;
 
-import ast.AST;
 import ast.Program;
+import ir.ControlFlowGraph;
+import ir.StackDepth;
 import parse.LPLParser;
 import sbnf.ParseException;
 
@@ -11,23 +12,75 @@ import java.nio.file.Paths;
 /** Compile an LPL program to SSM assembly code.  */
 public class LPLCompiler {
 
+    private static final String USAGE = "Usage: compile.LPLCompiler [-O0|-O1|-O2] [-inline] [-specialize] [-clone-budget=<n>] [-fold] [-licm] [-strength] [-cse] [-dse] [-dce] [-peephole] [-cfg] [-memoize] [-stack-depth] [-stream] <source-file> <SSM-assembly-file>";
+
     /**
      * Parse and compile an LPL source file and output the generated
      * assembly code to a file (if the file exists it will be
-     * overwritten). The two files are specified by command line arguments.
+     * overwritten). The two files are specified by command line arguments,
+     * optionally preceded by flags:
+     * <ul>
+     *     <li>-O0, -O1, -O2: select an optimization level (see Optimizer); the default is -O0</li>
+     *     <li>-inline: inline calls to small non-recursive methods</li>
+     *     <li>-specialize: clone methods for the constant arguments they are called with</li>
+     *     <li>-clone-budget=n: make at most n clones with -specialize (the default is 8)</li>
+     *     <li>-fold: fold constant expressions and propagate constants before code generation</li>
+     *     <li>-licm: move loop-invariant computations out of while loops</li>
+     *     <li>-strength: replace multiplications by loop induction variables with additions</li>
+     *     <li>-cse: compute repeated expressions only once</li>
+     *     <li>-dse: remove assignments to variables which are never read again</li>
+     *     <li>-dce: remove unreachable methods and statements before code generation</li>
+     *     <li>-peephole: run the peephole optimizer over the generated code</li>
+     *     <li>-cfg: thread jumps, remove swaps before stores and lay out the basic blocks of the generated code again</li>
+     *     <li>-memoize: keep a table of the results of pure recursive functions</li>
+     *     <li>-stack-depth: report the maximum operand stack depth of the main body and of each method</li>
+     *     <li>-stream: write the code of each method as soon as it has been compiled, so that the
+     *     code of the whole program is never held in memory; -peephole and -cfg then run over each
+     *     method on its own (-stream is ignored, with a warning, together with -stack-depth, which
+     *     needs the whole program)</li>
+     * </ul>
      * @param args command-line arguments
      * @throws ParseException if the source file contains syntax errors
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
-            System.err.println("Usage: compile.LPLCompiler <source-file> <SSM-assembly-file>");
+        if (args.length < 2) {
+            System.err.println(USAGE);
             System.exit(1);
         }
+        Optimizer optimizer = new Optimizer();
+        boolean stackDepth = false;
+        boolean stream = false;
+        for (int i = 0; i < args.length - 2; ++i) {
+            if (args[i].equals("-stack-depth")) {
+                stackDepth = true;
+            } else if (args[i].equals("-stream")) {
+                stream = true;
+            } else if (!optimizer.select(args[i])) {
+                System.err.println(USAGE);
+                System.exit(1);
+            }
+        }
+        String sourceFile = args[args.length - 2];
+        String asmFile = args[args.length - 1];
         LPLParser parser = new LPLParser();
-        Program program = parser.parse(args[0]);
-        program.compile();
-        AST.write(Paths.get(args[1]));
-        System.out.println("Assembly code written to " + args[1]);
+        Program program = parser.parse(sourceFile);
+        program = optimizer.optimize(program);
+        if (stream && stackDepth) {
+            System.err.println("-stream is ignored with -stack-depth, which needs the whole program");
+        }
+        if (stream && !stackDepth) {
+            optimizer.compileTo(program, Paths.get(asmFile));
+            System.out.println("Assembly code written to " + asmFile);
+            return;
+        }
+        CompilationContext cx = optimizer.compile(program);
+        optimizer.optimizeCode(cx);
+        if (stackDepth) {
+            StackDepth.maxDepths(ControlFlowGraph.build(cx.code().instructions()))
+                    .forEach((method, depth) -> System.out.println("max stack depth of " + method + ": " + depth));
+        }
+        cx.write(Paths.get(asmFile));
+        System.out.println("Assembly code written to " + asmFile);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package compile;
+
+import ast.Program;
+import stackmachine.assembler.Assembler;
+import stackmachine.machine.SSM;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compile, assemble and run LPL programs within one JVM, without starting
+ * the assembler or the SSM as separate programs.
+ * The assembler and the SSM only load programs from files, so the code is
+ * not handed to the SSM in memory: each run writes the assembly code and
+ * the object code to a pair of temporary files, which are deleted when the
+ * run ends.
+ */
+public class LPLRunner {
+
+    private LPLRunner() {}
+
+    /**
+     * Compile a program without optimization and run it.
+     * @param program the AST of the program
+     * @param out where the output of the program is printed
+     */
+    public static void run(Program program, PrintStream out) throws IOException {
+        run(program, new Optimizer(), out);
+    }
+
+    /**
+     * Optimize, compile and run a program.
+     * @param program the AST of the program
+     * @param optimizer the optimizations to apply
+     * @param out where the output of the program is printed
+     */
+    public static void run(Program program, Optimizer optimizer, PrintStream out) throws IOException {
+        program = optimizer.optimize(program);
+        CompilationContext cx = optimizer.compile(program);
+        optimizer.optimizeCode(cx);
+
+        Path asm = Files.createTempFile("LPLrunner-", ".ssma");
+        try {
+            cx.write(asm);
+            run(asm, out);
+        } finally {
+            Files.deleteIfExists(asm);
+        }
+    }
+
+    /**
+     * Assemble a file of assembly code and run it.
+     * @param asm a path to the assembly code
+     * @param out where the output of the program is printed
+     */
+    public static void run(Path asm, PrintStream out) throws IOException {
+        Path obj = Files.createTempFile("LPLrunner-", ".ssm");
+        try {
+            new Assembler().assemble(asm.toString(), null, obj.toString(), false);
+            SSM ssm = new SSM(obj.toString(), new String[]{}, true);
+            ssm.setOut(out);
+            ssm.run();
+            out.flush();
+        } finally {
+            Files.deleteIfExists(obj);
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class MethodsInfo {
     private final List<VarDecl> lcls;
     private final Map<String, Integer> paramOffsets;
     private final Map<String, Integer> localOffsets;
+    private final Map<String, VarInfo> vars;
 
     public MethodsInfo(String name, Type retType, List<VarDecl> params, List<VarDecl> localDecls) {
         this.methodName = name;
@@ -32,6 +33,15 @@ public class MethodsInfo {
 
         initLocals(localDecls);
         initParams(params);
+
+        // resolve every name once; locals hide parameters with the same name
+        this.vars = new HashMap<>();
+        for (VarDecl p : params) {
+            vars.put(p.name, new VarInfo(SymbolTable.INFO_PARAMETERS, paramOffsets.get(p.name), p.type));
+        }
+        for (VarDecl l : localDecls) {
+            vars.put(l.name, new VarInfo(SymbolTable.INFO_LOCALS, localOffsets.get(l.name), l.type));
+        }
     }
 
     private void initLocals(List<VarDecl> localDecls) {
@@ -43,9 +53,10 @@ public class MethodsInfo {
     }
 
     private void initParams(List<VarDecl> params) {
-        int paramOffsetCounter = 1;
+        // arguments are pushed in order, so the last one is nearest the frame pointer
+        int paramOffsetCounter = params.size();
         for (VarDecl p : params) {
-            paramOffsets.put(p.name, paramOffsetCounter++);
+            paramOffsets.put(p.name, paramOffsetCounter--);
             pTypes.put(p.name, p.type);
         }
     }
@@ -63,6 +74,13 @@ public class MethodsInfo {
         return paramOffsets.get(n);
     }
 
+    /**
+     * Gets the parameter or local variable with the given name, or null if there is none.
+     */
+    public VarInfo getVarInfo(String n) {
+        return vars.get(n);
+    }
+
     public Integer getLocalOffset(String n) {
         return localOffsets.get(n);
     }
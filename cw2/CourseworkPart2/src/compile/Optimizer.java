@@ -0,0 +1,196 @@
+package compile;
+
+import ast.Program;
+import ir.CfgOptimizer;
+import ir.Instruction;
+import optimize.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * The optimizations selected for a compilation, and the order in which
+ * they run: first the AST-to-AST passes, then (after code generation) the
+ * passes over the emitted code. Each optimization can be selected on its
+ * own, or as part of an optimization level:
+ * <ul>
+ *     <li>-O0: no optimization; the code is exactly what the code generator emits</li>
+ *     <li>-O1: constant propagation, dead code removal and the passes over the emitted code</li>
+ *     <li>-O2: everything, including inlining, specialization, loop optimizations,
+ *     value numbering and dead store elimination</li>
+ * </ul>
+ * Memoization (-memoize) is never selected by a level, since its tables
+ * make the data section much larger.
+ */
+public class Optimizer {
+
+    public boolean inline;
+    public boolean specialize;
+    public boolean fold;
+    public boolean licm;
+    public boolean strength;
+    public boolean cse;
+    public boolean dse;
+    public boolean dce;
+    public boolean peephole;
+    public boolean cfg;
+    public boolean memoize;
+
+    /** the largest number of method clones made by -specialize */
+    public int cloneBudget = Specializer.DEFAULT_BUDGET;
+
+    /**
+     * An optimizer with nothing selected (-O0).
+     */
+    public Optimizer() {}
+
+    /**
+     * An optimizer with the optimizations of a level selected.
+     * @param level 0, 1 or 2
+     */
+    public static Optimizer level(int level) {
+        Optimizer optimizer = new Optimizer();
+        optimizer.selectLevel(level);
+        return optimizer;
+    }
+
+    /**
+     * Select the optimizations of a level, in addition to any already selected.
+     * @param level 0, 1 or 2
+     */
+    public void selectLevel(int level) {
+        if (level < 0 || level > 2) {
+            throw new IllegalArgumentException("no such optimization level: " + level);
+        }
+        if (level >= 1) {
+            fold = dce = peephole = cfg = true;
+        }
+        if (level >= 2) {
+            inline = specialize = licm = strength = cse = dse = true;
+        }
+    }
+
+    /**
+     * Select an optimization by its command-line flag.
+     * @param flag a flag such as "-fold", "-O2" or "-clone-budget=4"
+     * @return false if the flag is not an optimization flag
+     */
+    public boolean select(String flag) {
+        if (flag.startsWith("-clone-budget=")) {
+            try {
+                cloneBudget = Integer.parseInt(flag.substring("-clone-budget=".length()));
+                return cloneBudget >= 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        switch (flag) {
+            case "-O0": selectLevel(0); return true;
+            case "-O1": selectLevel(1); return true;
+            case "-O2": selectLevel(2); return true;
+            case "-inline": inline = true; return true;
+            case "-specialize": specialize = true; return true;
+            case "-fold": fold = true; return true;
+            case "-licm": licm = true; return true;
+            case "-strength": strength = true; return true;
+            case "-cse": cse = true; return true;
+            case "-dse": dse = true; return true;
+            case "-dce": dce = true; return true;
+            case "-peephole": peephole = true; return true;
+            case "-cfg": cfg = true; return true;
+            case "-memoize": memoize = true; return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Run the selected AST-to-AST passes.
+     * @param program the program to optimize
+     * @return the optimized program
+     */
+    public Program optimize(Program program) {
+        if (inline) {
+            program = new Inliner().apply(program);
+        }
+        if (specialize) {
+            program = new Specializer(cloneBudget).apply(program);
+        }
+        if (fold) {
+            program = new ConstantFolder().apply(program);
+        }
+        if (licm) {
+            program = new LoopInvariantMotion().apply(program);
+        }
+        if (strength) {
+            program = new InductionVariables().apply(program);
+        }
+        if (cse) {
+            program = new ValueNumbering().apply(program);
+        }
+        if (dse) {
+            program = new DeadStoreEliminator().apply(program);
+        }
+        if (dce) {
+            program = new DeadCodeEliminator().apply(program);
+        }
+        return program;
+    }
+
+    /**
+     * Generate code for a program, with tables of results for its pure
+     * recursive functions if -memoize is selected.
+     * @return the compilation context holding the code
+     */
+    public CompilationContext compile(Program program) {
+        CompilationContext cx = new CompilationContext(memoized(program));
+        program.compile(cx);
+        return cx;
+    }
+
+    /**
+     * Generate code for a program and write it to a file, streaming each
+     * method to the file as soon as it has been compiled (see
+     * CompilationContext.open), so that the code of the whole program is
+     * never held in memory. The passes over the emitted code run over the
+     * main body and each method on its own, so the CFG passes neither thread
+     * jumps from one method into another nor remove methods which are never
+     * called.
+     * @param path a path to the file where the assembly code is to be written
+     */
+    public void compileTo(Program program, Path path) throws IOException {
+        try (CompilationContext cx = CompilationContext.open(path, memoized(program), codePasses())) {
+            program.compile(cx);
+        }
+    }
+
+    private Set<String> memoized(Program program) {
+        return memoize ? PureFunctions.memoizable(program) : Set.of();
+    }
+
+    /**
+     * Run the selected passes over the code emitted into a compilation context.
+     */
+    public void optimizeCode(CompilationContext cx) {
+        for (UnaryOperator<List<Instruction>> pass : codePasses()) {
+            cx.optimize(pass);
+        }
+    }
+
+    /**
+     * The selected passes over the emitted code, in the order they run.
+     */
+    private List<UnaryOperator<List<Instruction>>> codePasses() {
+        List<UnaryOperator<List<Instruction>>> passes = new ArrayList<>();
+        if (peephole) {
+            passes.add(new Peephole());
+        }
+        if (cfg) {
+            passes.add(new CfgOptimizer());
+        }
+        return passes;
+    }
+}
@@ -0,0 +1,191 @@
+package compile;
+
+import ast.*;
+import ast.util.TreeWalker;
+
+import java.util.*;
+
+/**
+ * Finds the methods whose result depends only on their arguments and which
+ * have no side effects, so that calls with the same arguments can share a
+ * result. A method is pure if it only reads and assigns its own parameters
+ * and locals (so no global is written, or read), does not print, does not
+ * touch arrays, and only calls pure methods.
+ */
+public class PureFunctions {
+
+    /**
+     * The largest number of parameters of a memoized function.
+     */
+    public static final int MAX_ARITY = 2;
+
+    private PureFunctions() {}
+
+    /**
+     * The pure methods of a program, by name.
+     */
+    public static Set<String> pure(Program program) {
+        Map<String, Set<String>> callees = new HashMap<>();
+        Set<String> pure = new HashSet<>();
+        for (MethodDecl m : program.methods) {
+            Set<String> called = new HashSet<>();
+            if (isLocallyPure(m, called)) {
+                pure.add(m.id);
+                callees.put(m.id, called);
+            }
+        }
+        // a method which calls an impure one is impure
+        boolean changed = true;
+        while (changed) {
+            changed = pure.removeIf(name -> !pure.containsAll(callees.get(name)));
+        }
+        return pure;
+    }
+
+    /**
+     * The functions worth memoizing: pure recursive functions with between
+     * one and MAX_ARITY int parameters, none of which they assign (the
+     * table entry is found from the parameters when the function returns,
+     * so they must still hold the arguments).
+     */
+    public static Set<String> memoizable(Program program) {
+        Set<String> pure = pure(program);
+        Map<String, Set<String>> callees = new HashMap<>();
+        for (MethodDecl m : program.methods) callees.put(m.id, calledMethods(m.body));
+        Set<String> result = new LinkedHashSet<>();
+        for (MethodDecl m : program.methods) {
+            if (pure.contains(m.id) && m.returnType instanceof TypeInt
+                    && !m.formals.isEmpty() && m.formals.size() <= MAX_ARITY
+                    && m.formals.stream().allMatch(f -> f.type instanceof TypeInt)
+                    && !assignsFormal(m)
+                    && reaches(callees, m.id, m.id)) {
+                result.add(m.id);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isLocallyPure(MethodDecl m, Set<String> called) {
+        Set<String> frame = new HashSet<>();
+        for (VarDecl decl : m.formals) frame.add(decl.name);
+        for (VarDecl decl : m.locals) frame.add(decl.name);
+        boolean[] pure = {true};
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpVar expVar) {
+                if (!frame.contains(expVar.varName)) pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(StmAssign stmAssign) {
+                if (!frame.contains(stmAssign.varName)) pure[0] = false;
+                return super.visit(stmAssign);
+            }
+
+            @Override
+            public Void visit(ExpArrayAccess expArrayAccess) {
+                pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(ExpArrayLength expArrayLength) {
+                pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(ExpNewArray expNewArray) {
+                pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(StmArrayAssign stmArrayAssign) {
+                pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(StmPrint stmPrint) {
+                pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(StmPrintln stmPrintln) {
+                pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(StmPrintChar stmPrintChar) {
+                pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(StmNewline stmNewline) {
+                pure[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(ExpMethodCall expMethodCall) {
+                called.add(expMethodCall.methodName);
+                return super.visit(expMethodCall);
+            }
+
+            @Override
+            public Void visit(StmMethodCall stmMethodCall) {
+                called.add(stmMethodCall.id);
+                return super.visit(stmMethodCall);
+            }
+        }.walk(m.body);
+        return pure[0];
+    }
+
+    private static boolean assignsFormal(MethodDecl m) {
+        Set<String> formals = new HashSet<>();
+        for (VarDecl decl : m.formals) formals.add(decl.name);
+        boolean[] assigns = {false};
+        new TreeWalker() {
+            @Override
+            public Void visit(StmAssign stmAssign) {
+                if (formals.contains(stmAssign.varName)) assigns[0] = true;
+                return super.visit(stmAssign);
+            }
+        }.walk(m.body);
+        return assigns[0];
+    }
+
+    private static Set<String> calledMethods(List<Stm> stms) {
+        Set<String> names = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpMethodCall expMethodCall) {
+                names.add(expMethodCall.methodName);
+                return super.visit(expMethodCall);
+            }
+
+            @Override
+            public Void visit(StmMethodCall stmMethodCall) {
+                names.add(stmMethodCall.id);
+                return super.visit(stmMethodCall);
+            }
+        }.walk(stms);
+        return names;
+    }
+
+    private static boolean reaches(Map<String, Set<String>> callees, String from, String to) {
+        Set<String> seen = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>(callees.getOrDefault(from, Set.of()));
+        while (!work.isEmpty()) {
+            String name = work.pop();
+            if (name.equals(to)) return true;
+            if (seen.add(name)) work.addAll(callees.getOrDefault(name, Set.of()));
+        }
+        return false;
+    }
+}
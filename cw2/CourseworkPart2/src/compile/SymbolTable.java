@@ -18,18 +18,30 @@ public class SymbolTable {
 
 
     private final Map<String, GlobalsInfo> globals;
+    private final Map<String, VarInfo> globalVars;
     private String currMethodName;
     private final Map<String, MethodsInfo> methods;
-    private int freshNameCounter;
+    private Set<StmMethodCall> tailCalls;
+    private final CompilationContext context;
 
     /**
      * Constructor
      */
     public SymbolTable(Program program) {
-        this.freshNameCounter = 0;
+        this(program, new CompilationContext());
+    }
+
+    /**
+     * Constructor for a symbol table whose code is emitted into the given
+     * compilation context.
+     */
+    public SymbolTable(Program program, CompilationContext context) {
+        this.context = context;
         this.globals = new HashMap<>();
+        this.globalVars = new LinkedHashMap<>();
         this.methods = new HashMap<>();
         this.currMethodName = null;
+        this.tailCalls = Collections.emptySet();
 
         initGlobalVars(program.varDecls);
         initMethods(program.methods);
@@ -45,6 +57,7 @@ public class SymbolTable {
         for (VarDecl decl: decls) {
             GlobalsInfo info = new GlobalsInfo(decl.type, nextAddr);
             this.globals.put(decl.name, info);
+            this.globalVars.put(decl.name, new VarInfo(INFO_GLOBALS, nextAddr, decl.type));
             nextAddr += 4;
         }
     }
@@ -70,30 +83,36 @@ public class SymbolTable {
      */
     public VarInfo getVarI(String varName) {
         if (isInMethod()) {
-            MethodsInfo currentMethod = methods.get(currMethodName);
-
-
-            Integer localOff = currentMethod.getLocalOffset(varName);
-            if (localOff != null) {
-                return new VarInfo(INFO_LOCALS, localOff, currentMethod.getLocalType(varName));
-            }
-
-
-            Integer paramOff = currentMethod.getParamOffset(varName);
-            if (paramOff != null) {
-                return new VarInfo(INFO_PARAMETERS, paramOff, currentMethod.getParamType(varName));
+            VarInfo info = methods.get(currMethodName).getVarInfo(varName);
+            if (info != null) {
+                return info;
             }
         }
 
-
-        GlobalsInfo globalInfo = globals.get(varName);
+        VarInfo globalInfo = globalVars.get(varName);
         if (globalInfo != null) {
-            return new VarInfo(INFO_GLOBALS, globalInfo.getAddress(), globalInfo.type);
+            return globalInfo;
         }
 
         throw new StaticAnalysisException("Undeclared variable: " + varName);
     }
 
+    /**
+     * Gets the label of the data word holding a global variable.
+     *
+     */
+    public String getGlobalLabel(String varName) {
+        return "$$_global_" + varName;
+    }
+
+    /**
+     * Gets the names of all global variables, in declaration order.
+     *
+     */
+    public List<String> globalNames() {
+        return new ArrayList<>(globalVars.keySet());
+    }
+
     /**
      * Gets the method label for code generation.
      *
@@ -102,12 +121,40 @@ public class SymbolTable {
         return "$_" + methodName;
     }
 
+    /**
+     * Gets the label of the code following the prologue of a method, which
+     * tail calls jump to.
+     *
+     */
+    public String getMethodBodyLabel(String methodName) {
+        return "$$_body_" + methodName;
+    }
+
+    /**
+     * Checks if a call from the current method to the given method can
+     * reuse the current frame: both must be functions or both procedures,
+     * with the same number of parameters and locals.
+     *
+     */
+    public boolean canTailCall(String methodName) {
+        if (!isInMethod()) {
+            return false;
+        }
+        MethodsInfo current = methods.get(currMethodName);
+        MethodsInfo target = methods.get(methodName);
+        return target != null
+                && (current.returnType == null) == (target.returnType == null)
+                && current.getParamCount() == target.getParamCount()
+                && current.getLocalCount() == target.getLocalCount();
+    }
+
     /**
      * Enters the scope of a method.
      *
      */
     public void enterMethod(String methodName) {
         this.currMethodName = methodName;
+        context.enterScope();
     }
 
 
@@ -134,6 +181,24 @@ public class SymbolTable {
      */
     public void exitMethod() {
         this.currMethodName = null;
+        this.tailCalls = Collections.emptySet();
+    }
+
+    /**
+     * Sets the procedure calls in the current method which are in tail
+     * position, and so may be compiled as tail calls.
+     *
+     */
+    public void setTailCalls(Set<StmMethodCall> calls) {
+        this.tailCalls = calls;
+    }
+
+    /**
+     * Checks if a procedure call is in tail position in the current method.
+     *
+     */
+    public boolean isTailCall(StmMethodCall call) {
+        return tailCalls.contains(call);
     }
 
     /**
@@ -148,6 +213,69 @@ public class SymbolTable {
         return info.returnType;
     }
 
+    /**
+     * Gets the compilation context the code is emitted into.
+     *
+     */
+    public CompilationContext context() {
+        return context;
+    }
+
+    /**
+     * Checks if the current method keeps a table of its results.
+     *
+     */
+    public boolean isMemoizedCurrMethod() {
+        return isInMethod() && context.memoized().contains(currMethodName);
+    }
+
+    /**
+     * Gets the names of the functions which keep a table of their results.
+     *
+     */
+    public Set<String> memoizedNames() {
+        return context.memoized();
+    }
+
+    /**
+     * Gets the label of the result table of a memoized function.
+     *
+     */
+    public String getMemoTableLabel(String methodName) {
+        return "$$_memo_" + methodName;
+    }
+
+    /**
+     * Gets the label of the result table of the current method.
+     *
+     */
+    public String getMemoTableLabelCurrMethod() {
+        return getMemoTableLabel(currMethodName);
+    }
+
+    /**
+     * Gets the number of values of each argument of a memoized function
+     * with the given number of parameters which have an entry in its table:
+     * each argument must be at least 0 and less than this.
+     *
+     */
+    public static int memoRange(int paramCount) {
+        return paramCount == 1 ? 64 : 8;
+    }
+
+    /**
+     * Gets the number of entries in the result table of a memoized function.
+     *
+     */
+    public int getMemoTableSize(String methodName) {
+        int paramCount = methods.get(methodName).getParamCount();
+        int size = 1;
+        for (int i = 0; i < paramCount; i++) {
+            size *= memoRange(paramCount);
+        }
+        return size;
+    }
+
     /**
      * Checks if currently in a method scope.
      *
@@ -157,11 +285,12 @@ public class SymbolTable {
     }
 
     /**
-     * Generates a fresh label with a prefix.
+     * Generates a fresh numbered label for the current method (see
+     * AST.emitLabel).
      *
      */
-    public String freshLabel(String prefix) {
-        return "$$_" + prefix + "_" + (freshNameCounter++);
+    public int freshLabel() {
+        return context.freshLabel();
     }
 
     /**
@@ -20,4 +20,13 @@ public class VarInfo {
     public Type getType() { return type; }
     public int getOffset() { return off; }
 
+    public boolean isGlobal() { return varInfo.equals(SymbolTable.INFO_GLOBALS); }
+
+    /**
+     * Gets the byte offset of a parameter or local variable from the frame pointer.
+     */
+    public int getFrameOffset() {
+        return varInfo.equals(SymbolTable.INFO_LOCALS) ? -4 * off : 4 * off;
+    }
+
 }
\ No newline at end of file
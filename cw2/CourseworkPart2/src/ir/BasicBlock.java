@@ -0,0 +1,70 @@
+package ir;
+
+import stackmachine.machine.OpCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A maximal sequence of instructions which can only be entered at the top
+ * and only branches at the bottom. A block has one or more labels; blocks
+ * which had no label in the assembly code are given a synthetic one so
+ * that they can be jumped to after the blocks are laid out again.
+ */
+public class BasicBlock {
+
+    /** the labels of the block, the first of which is used to jump to it */
+    public final List<Instruction> labels = new ArrayList<>();
+
+    /** the instructions of the block, of which only the last may branch */
+    public final List<Instruction> instructions = new ArrayList<>();
+
+    /** the block which control continues with if the last instruction does not branch */
+    BasicBlock fallThrough;
+
+    /** was the label invented when the graph was built? */
+    boolean synthetic;
+
+    /** must this block stay in place relative to its neighbours? */
+    boolean pinned;
+
+    public Instruction label() {
+        return labels.get(0);
+    }
+
+    /**
+     * The last instruction, or null if the block is empty.
+     */
+    public Instruction terminator() {
+        return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+    }
+
+    /**
+     * Can control continue from the end of this block into its fall-through
+     * block?
+     */
+    public boolean fallsThrough() {
+        Instruction last = terminator();
+        return (last == null || !last.isUnconditional()) && fallThrough != null;
+    }
+
+    public BasicBlock getFallThrough() {
+        return fallsThrough() ? fallThrough : null;
+    }
+
+    /**
+     * Is the block nothing but a jump to a label?
+     */
+    public boolean isJumpOnly() {
+        return instructions.size() == 1 && instructions.get(0).opcode == OpCode.JUMPI;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    @Override
+    public String toString() {
+        return label().labelName();
+    }
+}
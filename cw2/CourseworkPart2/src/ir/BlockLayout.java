@@ -0,0 +1,59 @@
+package ir;
+
+import stackmachine.machine.OpCode;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * A CFG pass which orders the blocks so that fewer jumps are needed.
+ * Blocks are laid out in traces: each block is followed by the block it
+ * falls through to, or else by the target of its jumpi, so that the jumpi
+ * can be dropped. A jump target is only moved if nothing falls through
+ * into it and it will not need a jump of its own afterwards.
+ * The first block, method entries and pinned blocks start traces of their
+ * own and are otherwise left in their original order.
+ */
+public class BlockLayout implements UnaryOperator<ControlFlowGraph> {
+
+    @Override
+    public ControlFlowGraph apply(ControlFlowGraph cfg) {
+        Set<BasicBlock> entries = cfg.entries();
+        Map<BasicBlock, Integer> fallThroughs = new HashMap<>();
+        for (BasicBlock block : cfg.blocks()) {
+            if (block.fallsThrough()) fallThroughs.merge(block.getFallThrough(), 1, Integer::sum);
+        }
+
+        Set<BasicBlock> placed = new HashSet<>();
+        List<BasicBlock> layout = new ArrayList<>();
+        for (BasicBlock start : cfg.blocks()) {
+            BasicBlock block = start;
+            while (block != null && placed.add(block)) {
+                layout.add(block);
+                if (block.isPinned()) break;
+                block = next(cfg, block, placed, entries, fallThroughs);
+            }
+        }
+        cfg.blocks().clear();
+        cfg.blocks().addAll(layout);
+        return cfg;
+    }
+
+    /**
+     * The block to place after a block in its trace, or null to end the trace.
+     */
+    private static BasicBlock next(ControlFlowGraph cfg, BasicBlock block, Set<BasicBlock> placed,
+                                   Set<BasicBlock> entries, Map<BasicBlock, Integer> fallThroughs) {
+        BasicBlock next = block.getFallThrough();
+        if (next == null) {
+            Instruction last = block.terminator();
+            if (last == null || last.opcode != OpCode.JUMPI) return null;
+            next = cfg.target(last);
+            if (next == null || fallThroughs.containsKey(next)) return null;
+            BasicBlock after = next.getFallThrough();
+            if (after != null && placed.contains(after)) return null;
+        }
+        if (placed.contains(next) || next.isPinned() || entries.contains(next)) return null;
+        return next;
+    }
+}
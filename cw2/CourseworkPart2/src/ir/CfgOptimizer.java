@@ -0,0 +1,49 @@
+package ir;
+
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Optimizes emitted SSM code by building its control-flow graph, running
+ * the CFG passes over it and lowering it back to instructions.
+ * Code with lines which are not SSM instructions (see Instruction.opaque)
+ * is returned unchanged.
+ * An optimizer can be applied to each part of a program in turn, as when
+ * the code is streamed: the labels it gives to blocks which had none are
+ * different in each part.
+ */
+public class CfgOptimizer implements UnaryOperator<List<Instruction>> {
+
+    private final List<UnaryOperator<ControlFlowGraph>> passes;
+    private int syntheticCount;
+
+    /**
+     * Create an optimizer which threads jumps, removes unreachable blocks,
+     * schedules stores so that they need no swap and then lays out the
+     * blocks again.
+     */
+    public CfgOptimizer() {
+        this(List.of(new JumpThreading(), new UnreachableBlocks(), new StackScheduling(), new BlockLayout()));
+    }
+
+    /**
+     * Create an optimizer which runs a custom list of passes.
+     * @param passes the passes, in the order they are run
+     */
+    public CfgOptimizer(List<UnaryOperator<ControlFlowGraph>> passes) {
+        this.passes = List.copyOf(passes);
+    }
+
+    @Override
+    public List<Instruction> apply(List<Instruction> code) {
+        ControlFlowGraph cfg = ControlFlowGraph.build(code, syntheticCount);
+        syntheticCount = cfg.syntheticCount();
+        if (cfg.hasOpaqueInstructions()) {
+            return code;
+        }
+        for (UnaryOperator<ControlFlowGraph> pass : passes) {
+            cfg = pass.apply(cfg);
+        }
+        return cfg.lower();
+    }
+}
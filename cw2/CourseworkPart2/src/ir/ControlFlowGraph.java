@@ -0,0 +1,226 @@
+package ir;
+
+import stackmachine.machine.OpCode;
+
+import java.util.*;
+
+/**
+ * The control-flow graph of a whole SSM program: its basic blocks, in
+ * layout order.
+ * A graph is built from the code emitted for a Program (the main body
+ * followed by one entry label per MethodDecl), as taken from the
+ * instruction buffer, and lowered back to instructions after the passes
+ * have run. Lowering adds a jumpi wherever a block no longer falls through
+ * into the next one, and drops a jumpi to the block that follows it.
+ * Lines which are not SSM instructions are kept as opaque instructions
+ * (see Instruction.opaque); the passes must leave a graph which has any
+ * unchanged, since they cannot tell what such a line does.
+ * Blocks which had no label are given a numbered label of a scope of their
+ * own, which the code generator never uses.
+ * Blocks whose address is pushed, and the run of jumpi-only blocks after
+ * them (the entries of a switch jump table), are pinned: they are reached
+ * by computed jumps, so the passes must keep them, in their original order
+ * and size.
+ */
+public class ControlFlowGraph {
+
+    /** the scope of the labels given to blocks which had none */
+    private static final int SYNTHETIC_SCOPE = (1 << 22) - 1;
+
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final Map<Long, BasicBlock> byLabel = new HashMap<>();
+    private int syntheticCount;
+    private boolean hasOpaque;
+
+    private ControlFlowGraph() {}
+
+    /**
+     * Build the graph of a program's code.
+     * @param code the code up to the data section (see
+     *             InstructionBuffer.instructions)
+     */
+    public static ControlFlowGraph build(List<Instruction> code) {
+        return build(code, 0);
+    }
+
+    /**
+     * Build the graph of a part of a program's code, numbering the labels
+     * given to blocks which had none from a number on, so that they differ
+     * from those of the graphs of the other parts.
+     * @param firstSynthetic the number of the first such label
+     */
+    static ControlFlowGraph build(List<Instruction> code, int firstSynthetic) {
+        ControlFlowGraph cfg = new ControlFlowGraph();
+        cfg.syntheticCount = firstSynthetic;
+        BasicBlock current = null;
+        for (Instruction instruction : code) {
+            if (instruction.isLabel()) {
+                if (current == null || !current.instructions.isEmpty()) {
+                    current = cfg.newBlock(current);
+                }
+                current.labels.add(instruction);
+                cfg.byLabel.put(instruction.label, current);
+                continue;
+            }
+            if (instruction.isOpaque()) cfg.hasOpaque = true;
+            if (current == null || (current.terminator() != null && current.terminator().endsBlock())) {
+                current = cfg.newBlock(current);
+            }
+            current.instructions.add(instruction);
+        }
+        for (BasicBlock block : cfg.blocks) {
+            if (block.labels.isEmpty()) {
+                block.labels.add(cfg.freshLabel());
+                block.synthetic = true;
+                cfg.byLabel.put(block.label().label, block);
+            }
+        }
+        for (BasicBlock block : cfg.blocks) {
+            for (Instruction instruction : block.instructions) {
+                if (instruction.opcode == OpCode.PUSH && instruction.hasLabelOperand()) {
+                    BasicBlock target = cfg.byLabel.get(instruction.label);
+                    if (target != null) target.pinned = true;
+                }
+            }
+        }
+        // a jump table is indexed from the address of its first entry, so
+        // the jumps which follow a pinned block are pinned too
+        for (int i = 1; i < cfg.blocks.size(); i++) {
+            BasicBlock block = cfg.blocks.get(i);
+            if (cfg.blocks.get(i - 1).pinned && block.isJumpOnly()) block.pinned = true;
+        }
+        return cfg;
+    }
+
+    private BasicBlock newBlock(BasicBlock previous) {
+        BasicBlock block = new BasicBlock();
+        if (previous != null) previous.fallThrough = block;
+        blocks.add(block);
+        return block;
+    }
+
+    private Instruction freshLabel() {
+        Instruction label;
+        do {
+            label = Instruction.localLabel(SYNTHETIC_SCOPE, syntheticCount++);
+        } while (byLabel.containsKey(label.label));
+        return label;
+    }
+
+    /**
+     * The number after that of the last label given to a block which had none.
+     */
+    int syntheticCount() {
+        return syntheticCount;
+    }
+
+    /**
+     * Does the code have any lines which are not SSM instructions?
+     */
+    public boolean hasOpaqueInstructions() {
+        return hasOpaque;
+    }
+
+    /**
+     * The blocks, in layout order. Passes may reorder or remove blocks.
+     */
+    public List<BasicBlock> blocks() {
+        return blocks;
+    }
+
+    /**
+     * The block with a label, or null if it is not a code label.
+     */
+    public BasicBlock block(Instruction label) {
+        return byLabel.get(label.label);
+    }
+
+    /**
+     * The block a jump goes to, or null if it is not a jump to a label.
+     */
+    public BasicBlock target(Instruction instruction) {
+        return instruction != null && instruction.isDirectJump() ? byLabel.get(instruction.label) : null;
+    }
+
+    /**
+     * The blocks control can go to from the end of a block.
+     */
+    public List<BasicBlock> successors(BasicBlock block) {
+        List<BasicBlock> successors = new ArrayList<>();
+        Instruction last = block.terminator();
+        if (last != null && (last.opcode == OpCode.JUMP || last.opcode == OpCode.JUMP_Z)) {
+            for (BasicBlock b : blocks) {
+                if (b.pinned) successors.add(b);
+            }
+        }
+        BasicBlock target = target(last);
+        if (target != null) successors.add(target);
+        if (block.fallsThrough()) successors.add(block.fallThrough);
+        return successors;
+    }
+
+    /**
+     * The blocks where control can enter from outside the code's jumps: the
+     * start of the program, method entries and pinned blocks.
+     */
+    public Set<BasicBlock> entries() {
+        Set<BasicBlock> entries = new LinkedHashSet<>();
+        if (!blocks.isEmpty()) entries.add(blocks.get(0));
+        for (BasicBlock block : blocks) {
+            if (block.pinned) entries.add(block);
+            for (Instruction instruction : block.instructions) {
+                if (instruction.opcode == OpCode.CALLI && byLabel.containsKey(instruction.label)) {
+                    entries.add(byLabel.get(instruction.label));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Make control which reached the end of a block continue with another
+     * block instead.
+     */
+    public void setFallThrough(BasicBlock block, BasicBlock target) {
+        block.fallThrough = target;
+    }
+
+    /**
+     * Lower the graph to code.
+     * @return the labels and instructions, without the data section
+     */
+    public List<Instruction> lower() {
+        List<BasicBlock> live = new ArrayList<>(blocks);
+        List<List<Instruction>> code = new ArrayList<>();
+        for (int i = 0; i < live.size(); i++) {
+            BasicBlock block = live.get(i);
+            BasicBlock next = i + 1 < live.size() ? live.get(i + 1) : null;
+            List<Instruction> instructions = new ArrayList<>(block.instructions);
+            Instruction last = block.terminator();
+            if (block.fallsThrough() && block.fallThrough != next) {
+                instructions.add(new Instruction(OpCode.JUMPI, block.fallThrough.label()));
+            } else if (last != null && last.opcode == OpCode.JUMPI && !block.pinned
+                    && next != null && target(last) == next) {
+                instructions.remove(instructions.size() - 1);
+            }
+            code.add(instructions);
+        }
+
+        Set<Long> referenced = new HashSet<>();
+        for (List<Instruction> instructions : code) {
+            for (Instruction instruction : instructions) {
+                if (instruction.hasLabelOperand()) referenced.add(instruction.label);
+            }
+        }
+
+        List<Instruction> lowered = new ArrayList<>();
+        for (int i = 0; i < live.size(); i++) {
+            BasicBlock block = live.get(i);
+            for (Instruction label : block.labels) {
+                if (!block.synthetic || referenced.contains(label.label)) lowered.add(label);
+            }
+            lowered.addAll(code.get(i));
+        }
+        return lowered;
+    }
+}
@@ -0,0 +1,155 @@
+package ir;
+
+import stackmachine.machine.OpCode;
+
+/**
+ * A single entry of the code, as taken by the passes over the emitted code:
+ * an SSM instruction, with an optional operand which is either a number or
+ * a label, or a label which names the next instruction.
+ * A label is identified by a key: the index of its symbol in the
+ * instruction buffer, or the scope and number of a numbered label (see
+ * InstructionBuffer). The operand of a syscall is a symbol too.
+ * A line which is not an SSM instruction (such as the placeholders the
+ * array code generator emits) is kept as an opaque instruction, with no
+ * opcode and the line as its name; nothing is known about its effect.
+ */
+public final class Instruction {
+
+    public final OpCode opcode;
+    /** the number operand */
+    public final int number;
+    /** the key of the label operand, or of the label itself */
+    public final long label;
+    /** the symbol of the label, or the line of an opaque instruction */
+    public final String name;
+    /** for a label: is it kept even if nothing refers to it? */
+    public final boolean kept;
+    /** the kind of buffer entry (see InstructionBuffer) */
+    final int kind;
+
+    Instruction(int kind, OpCode opcode, int number, long label, String name, boolean kept) {
+        this.kind = kind;
+        this.opcode = opcode;
+        this.number = number;
+        this.label = label;
+        this.name = name;
+        this.kept = kept;
+    }
+
+    public Instruction(OpCode opcode) {
+        this(InstructionBuffer.INSTRUCTION, opcode, 0, 0, null, false);
+    }
+
+    /**
+     * An instruction with a numeric operand.
+     */
+    public Instruction(OpCode opcode, int number) {
+        this(InstructionBuffer.INT_OPERAND, opcode, number, 0, null, false);
+    }
+
+    /**
+     * An instruction whose operand is a label.
+     * @param label the label, as it names an instruction
+     */
+    public Instruction(OpCode opcode, Instruction label) {
+        this(label.isLocal() ? InstructionBuffer.LOCAL_OPERAND : InstructionBuffer.SYMBOL_OPERAND,
+                opcode, 0, label.label, label.name, false);
+    }
+
+    /**
+     * An opaque instruction, which keeps a line of text the SSM does not have.
+     */
+    public static Instruction opaque(String line) {
+        return new Instruction(InstructionBuffer.TEXT, null, 0, 0, line.trim(), false);
+    }
+
+    /**
+     * A numbered label which is dropped from the output if nothing refers to it.
+     */
+    static Instruction localLabel(int scope, int number) {
+        return new Instruction(InstructionBuffer.LOCAL_LABEL, null, 0, InstructionBuffer.localKey(scope, number),
+                null, false);
+    }
+
+    /**
+     * Is this an opaque instruction?
+     */
+    public boolean isOpaque() {
+        return kind == InstructionBuffer.TEXT;
+    }
+
+    /**
+     * Is this a label rather than an instruction?
+     */
+    public boolean isLabel() {
+        return kind == InstructionBuffer.LABEL || kind == InstructionBuffer.LOCAL_LABEL;
+    }
+
+    /**
+     * Is the operand of this instruction a label (or a syscall name)?
+     */
+    public boolean hasLabelOperand() {
+        return kind == InstructionBuffer.SYMBOL_OPERAND || kind == InstructionBuffer.LOCAL_OPERAND;
+    }
+
+    /**
+     * Is the operand of this instruction a number?
+     */
+    public boolean hasNumberOperand() {
+        return kind == InstructionBuffer.INT_OPERAND;
+    }
+
+    private boolean isLocal() {
+        return kind == InstructionBuffer.LOCAL_LABEL || kind == InstructionBuffer.LOCAL_OPERAND;
+    }
+
+    /**
+     * Is this a jump to a label (jumpi or jumpi_z)?
+     */
+    public boolean isDirectJump() {
+        return opcode == OpCode.JUMPI || opcode == OpCode.JUMPI_Z;
+    }
+
+    /**
+     * Does control never continue with the next instruction?
+     */
+    public boolean isUnconditional() {
+        return opcode == OpCode.JUMPI || opcode == OpCode.JUMP || opcode == OpCode.RET || opcode == OpCode.HALT;
+    }
+
+    /**
+     * Does this instruction end a basic block?
+     */
+    public boolean endsBlock() {
+        return isUnconditional() || opcode == OpCode.JUMPI_Z || opcode == OpCode.JUMP_Z;
+    }
+
+    /**
+     * Copy this instruction with a different opcode.
+     */
+    public Instruction withOpcode(OpCode opcode) {
+        return new Instruction(kind, opcode, number, label, name, kept);
+    }
+
+    /**
+     * Copy this instruction with a different label operand.
+     */
+    public Instruction withTarget(Instruction label) {
+        return new Instruction(opcode, label);
+    }
+
+    /**
+     * The name of the label operand, or of the label itself.
+     */
+    public String labelName() {
+        return isLocal() ? InstructionBuffer.localName(label) : name;
+    }
+
+    @Override
+    public String toString() {
+        if (isOpaque()) return name;
+        if (isLabel()) return labelName() + ":";
+        if (hasNumberOperand()) return opcode.mnemonic + " " + number;
+        return hasLabelOperand() ? opcode.mnemonic + " " + labelName() : opcode.mnemonic;
+    }
+}
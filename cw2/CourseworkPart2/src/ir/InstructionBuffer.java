@@ -0,0 +1,438 @@
+package ir;
+
+import stackmachine.machine.OpCode;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * A compact buffer of the SSM assembly code being emitted.
+ * Each entry is two ints: a kind and opcode, and an operand, which is a
+ * number, the index of a symbol (a label or a syscall name) or the index of
+ * a line of text (a comment, or an instruction the SSM does not have). A
+ * data word keeps its label in place of the opcode and its value as the
+ * operand.
+ * Symbols are interned, so a label used many times is stored once, and the
+ * text of the code is only built when it is written out.
+ * The labels the code generator makes up are not symbols but numbers,
+ * counted from 0 in each scope (the main body, or a method), and only
+ * rendered when the code is written out, as $$_L&lt;scope&gt;_&lt;number&gt;.
+ * Such a label is dropped if no instruction refers to it, unless it is
+ * kept, like the entries of a jump table, which are reached by a computed
+ * jump.
+ * The passes over the emitted code take the entries as Instructions and
+ * put their result back, so the code is never rendered as text and parsed
+ * again between passes.
+ */
+public class InstructionBuffer {
+
+    static final int INSTRUCTION = 0;
+    static final int INT_OPERAND = 1;
+    static final int SYMBOL_OPERAND = 2;
+    static final int LABEL = 3;
+    static final int DATA = 4;
+    static final int TEXT = 5;
+    static final int LOCAL_LABEL = 6;
+    static final int LOCAL_OPERAND = 7;
+
+    /** the bits of the payload of a LOCAL_OPERAND which hold the opcode */
+    private static final int OPCODE_BITS = 6;
+
+    private static final OpCode[] OPCODES = OpCode.values();
+    private static final Map<String, OpCode> BY_MNEMONIC = new HashMap<>();
+
+    static {
+        for (OpCode opcode : OPCODES) BY_MNEMONIC.put(opcode.mnemonic, opcode);
+        assert OPCODES.length <= 1 << OPCODE_BITS;
+    }
+
+    /** the opcode ordinal (or the label of a data word) << 4 | kind, per entry */
+    private int[] ops = new int[1024];
+    /** the number, symbol index, text index or data value, per entry */
+    private int[] operands = new int[1024];
+    private int size;
+    /** the scope of the numbered labels appended */
+    private int scope;
+
+    private final List<String> symbols = new ArrayList<>();
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final List<String> texts = new ArrayList<>();
+
+    /**
+     * The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        symbols.clear();
+        symbolIds.clear();
+        texts.clear();
+    }
+
+    /**
+     * Start a new scope of numbered labels.
+     * @param scope a number different from that of every earlier scope
+     */
+    public void enterScope(int scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * Append an instruction with no operand.
+     */
+    public void append(OpCode opcode) {
+        add(INSTRUCTION, opcode.ordinal(), 0);
+    }
+
+    /**
+     * Append an instruction with a numeric operand.
+     */
+    public void append(OpCode opcode, int operand) {
+        add(INT_OPERAND, opcode.ordinal(), operand);
+    }
+
+    /**
+     * Append an instruction whose operand is a label or a syscall name.
+     */
+    public void append(OpCode opcode, String symbol) {
+        add(SYMBOL_OPERAND, opcode.ordinal(), symbolId(symbol));
+    }
+
+    /**
+     * Append a label, which names the next instruction.
+     */
+    public void appendLabel(String label) {
+        add(LABEL, 0, symbolId(label));
+    }
+
+    /**
+     * Append an instruction whose operand is a numbered label of the
+     * current scope.
+     */
+    public void appendLocal(OpCode opcode, int label) {
+        add(LOCAL_OPERAND, scope << OPCODE_BITS | opcode.ordinal(), label);
+    }
+
+    /**
+     * Append a numbered label of the current scope, which names the next
+     * instruction.
+     * @param keep whether to keep the label even if nothing refers to it
+     */
+    public void appendLocalLabel(int label, boolean keep) {
+        add(LOCAL_LABEL, scope << 1 | (keep ? 1 : 0), label);
+    }
+
+    /**
+     * Append a labelled data word.
+     */
+    public void appendData(String label, int value) {
+        add(DATA, symbolId(label), value);
+    }
+
+    /**
+     * Append a line of assembly code, which is parsed into an instruction,
+     * label or data word if possible, and kept as text otherwise.
+     */
+    public void appendLine(String line) {
+        if (line.startsWith("//") || line.startsWith(".")) {
+            appendText(line);
+            return;
+        }
+        int colon = line.indexOf(':');
+        if (colon > 0) {
+            String rest = line.substring(colon + 1).trim();
+            if (rest.isEmpty()) {
+                appendLabel(line.substring(0, colon));
+                return;
+            }
+            Integer value = parseInt(rest);
+            if (value != null) {
+                appendData(line.substring(0, colon), value);
+                return;
+            }
+            appendText(line);
+            return;
+        }
+        String trimmed = line.trim();
+        int space = trimmed.indexOf(' ');
+        OpCode opcode = BY_MNEMONIC.get(space < 0 ? trimmed : trimmed.substring(0, space));
+        if (opcode == null) {
+            appendText(line);
+        } else if (space < 0) {
+            append(opcode);
+        } else {
+            String operand = trimmed.substring(space + 1).trim();
+            Integer value = parseInt(operand);
+            if (value != null) {
+                append(opcode, value);
+            } else {
+                append(opcode, operand);
+            }
+        }
+    }
+
+    /**
+     * Append a line which is kept exactly as it is.
+     */
+    public void appendText(String text) {
+        texts.add(text);
+        add(TEXT, 0, texts.size() - 1);
+    }
+
+    private static Integer parseInt(String s) {
+        if (s.isEmpty()) return null;
+        int start = s.charAt(0) == '-' ? 1 : 0;
+        if (start == s.length()) return null;
+        for (int i = start; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) return null;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private int symbolId(String symbol) {
+        Integer id = symbolIds.get(symbol);
+        if (id == null) {
+            id = symbols.size();
+            symbols.add(symbol);
+            symbolIds.put(symbol, id);
+        }
+        return id;
+    }
+
+    private void add(int kind, int payload, int operand) {
+        if (size == ops.length) {
+            ops = Arrays.copyOf(ops, 2 * size);
+            operands = Arrays.copyOf(operands, 2 * size);
+        }
+        ops[size] = payload << 4 | kind;
+        operands[size] = operand;
+        size++;
+    }
+
+    /**
+     * The kind of entry i (INSTRUCTION ... TEXT).
+     */
+    int kindAt(int i) {
+        return ops[i] & 0xf;
+    }
+
+    /**
+     * The opcode of instruction i.
+     */
+    OpCode opcodeAt(int i) {
+        int payload = ops[i] >>> 4;
+        return OPCODES[kindAt(i) == LOCAL_OPERAND ? payload & ((1 << OPCODE_BITS) - 1) : payload];
+    }
+
+    /**
+     * The symbol operand of instruction i, or the name of label or data word i.
+     */
+    String symbolAt(int i) {
+        switch (kindAt(i)) {
+            case DATA:
+                return symbols.get(ops[i] >>> 4);
+            case LOCAL_LABEL:
+                return localName(ops[i] >>> 5, operands[i]);
+            case LOCAL_OPERAND:
+                return localName(ops[i] >>> (4 + OPCODE_BITS), operands[i]);
+            default:
+                return symbols.get(operands[i]);
+        }
+    }
+
+    /**
+     * Is entry i an instruction?
+     */
+    boolean isInstruction(int i) {
+        int kind = kindAt(i);
+        return kind <= SYMBOL_OPERAND || kind == LOCAL_OPERAND;
+    }
+
+    private static String localName(int scope, int label) {
+        return "$$_L" + scope + "_" + label;
+    }
+
+    static String localName(long key) {
+        return localName(localScope(key), (int) key);
+    }
+
+    /**
+     * Which entries are written out: every entry but the numbered labels
+     * which are neither kept nor referred to.
+     */
+    private BitSet written() {
+        Set<Long> referenced = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            if (kindAt(i) == LOCAL_OPERAND) referenced.add(localKey(ops[i] >>> (4 + OPCODE_BITS), operands[i]));
+        }
+        BitSet written = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            written.set(i, kindAt(i) != LOCAL_LABEL || (ops[i] & (1 << 4)) != 0
+                    || referenced.contains(localKey(ops[i] >>> 5, operands[i])));
+        }
+        return written;
+    }
+
+    /**
+     * The key of a numbered label (see Instruction.label), which is never
+     * the index of a symbol.
+     */
+    static long localKey(int scope, int label) {
+        return 1L << 62 | (long) scope << 32 | (label & 0xffffffffL);
+    }
+
+    private static int localScope(long key) {
+        return (int) (key >>> 32) & ((1 << 30) - 1);
+    }
+
+    /**
+     * The text of entry i, which is kept as a line of text.
+     */
+    String textAt(int i) {
+        return texts.get(operands[i]);
+    }
+
+    /**
+     * The code up to the data section, as taken by the passes over the
+     * emitted code. Comments and the numbered labels which would not be
+     * written out are left out.
+     */
+    public List<Instruction> instructions() {
+        BitSet written = written();
+        int end = dataStart();
+        List<Instruction> code = new ArrayList<>(end);
+        for (int i = 0; i < end; i++) {
+            if (!written.get(i)) continue;
+            int payload = ops[i] >>> 4;
+            switch (kindAt(i)) {
+                case INSTRUCTION:
+                    code.add(new Instruction(OPCODES[payload]));
+                    break;
+                case INT_OPERAND:
+                    code.add(new Instruction(OPCODES[payload], operands[i]));
+                    break;
+                case SYMBOL_OPERAND:
+                    code.add(new Instruction(SYMBOL_OPERAND, OPCODES[payload], 0, operands[i],
+                            symbols.get(operands[i]), false));
+                    break;
+                case LABEL:
+                    code.add(new Instruction(LABEL, null, 0, operands[i], symbols.get(operands[i]), false));
+                    break;
+                case LOCAL_LABEL:
+                    code.add(new Instruction(LOCAL_LABEL, null, 0, localKey(payload >>> 1, operands[i]), null,
+                            (payload & 1) != 0));
+                    break;
+                case LOCAL_OPERAND:
+                    code.add(new Instruction(LOCAL_OPERAND, opcodeAt(i), 0,
+                            localKey(payload >>> OPCODE_BITS, operands[i]), null, false));
+                    break;
+                default:
+                    String text = textAt(i);
+                    if (!text.startsWith("//")) code.add(Instruction.opaque(text));
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Replace the code up to the data section, keeping the data section.
+     * @param code the instructions, whose labels and label operands must
+     *             all have been taken from this buffer (see instructions)
+     */
+    public void setInstructions(List<Instruction> code) {
+        int start = dataStart();
+        int[] dataOps = Arrays.copyOfRange(ops, start, size);
+        int[] dataOperands = Arrays.copyOfRange(operands, start, size);
+        size = 0;
+        for (Instruction instruction : code) {
+            switch (instruction.kind) {
+                case INSTRUCTION:
+                case INT_OPERAND:
+                    add(instruction.kind, instruction.opcode.ordinal(), instruction.number);
+                    break;
+                case SYMBOL_OPERAND:
+                    add(SYMBOL_OPERAND, instruction.opcode.ordinal(), (int) instruction.label);
+                    break;
+                case LABEL:
+                    add(LABEL, 0, (int) instruction.label);
+                    break;
+                case LOCAL_LABEL:
+                    add(LOCAL_LABEL, localScope(instruction.label) << 1 | (instruction.kept ? 1 : 0),
+                            (int) instruction.label);
+                    break;
+                case LOCAL_OPERAND:
+                    add(LOCAL_OPERAND, localScope(instruction.label) << OPCODE_BITS | instruction.opcode.ordinal(),
+                            (int) instruction.label);
+                    break;
+                default:
+                    appendText(instruction.name);
+            }
+        }
+        for (int i = 0; i < dataOps.length; i++) {
+            add(dataOps[i] & 0xf, dataOps[i] >>> 4, dataOperands[i]);
+        }
+    }
+
+    /**
+     * The index of the first entry of the data section (the .data
+     * directive or the first data word), or the size if there is none.
+     */
+    private int dataStart() {
+        for (int i = 0; i < size; i++) {
+            if (kindAt(i) == DATA || (kindAt(i) == TEXT && textAt(i).equals(".data"))) return i;
+        }
+        return size;
+    }
+
+    /**
+     * Write the code, one line per entry but the numbered labels which are
+     * dropped, with instructions indented by a tab.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        BitSet written = written();
+        for (int i = 0; i < size; i++) {
+            if (!written.get(i)) continue;
+            if (isInstruction(i)) writer.write('\t');
+            render(i, writer);
+            writer.write('\n');
+        }
+    }
+
+    private void render(int i, Appendable out) throws IOException {
+        int kind = ops[i] & 0xf;
+        int payload = ops[i] >>> 4;
+        switch (kind) {
+            case INSTRUCTION:
+                out.append(OPCODES[payload].mnemonic);
+                break;
+            case INT_OPERAND:
+                out.append(OPCODES[payload].mnemonic).append(' ').append(Integer.toString(operands[i]));
+                break;
+            case SYMBOL_OPERAND:
+                out.append(OPCODES[payload].mnemonic).append(' ').append(symbols.get(operands[i]));
+                break;
+            case LABEL:
+                out.append(symbols.get(operands[i])).append(':');
+                break;
+            case DATA:
+                out.append(symbols.get(payload)).append(": ").append(Integer.toString(operands[i]));
+                break;
+            case LOCAL_LABEL:
+                out.append(symbolAt(i)).append(':');
+                break;
+            case LOCAL_OPERAND:
+                out.append(opcodeAt(i).mnemonic).append(' ').append(symbolAt(i));
+                break;
+            default:
+                out.append(texts.get(operands[i]));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ir;
+
+import stackmachine.machine.OpCode;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * A CFG pass which makes jumps go straight to their final destination.
+ * A jump (or a fall-through) to an empty block or to a block which is just
+ * a jumpi is redirected to where that block goes, and a jumpi to a block
+ * which is just a ret or a halt is replaced by a copy of it.
+ * A jumpi_z to a jumpi_z cannot be collapsed, since each of them pops a
+ * different value.
+ */
+public class JumpThreading implements UnaryOperator<ControlFlowGraph> {
+
+    @Override
+    public ControlFlowGraph apply(ControlFlowGraph cfg) {
+        for (BasicBlock block : cfg.blocks()) {
+            List<Instruction> instructions = block.instructions;
+            Instruction last = block.terminator();
+            BasicBlock target = cfg.target(last);
+            if (target != null) {
+                BasicBlock destination = destination(cfg, target);
+                if (destination != target) {
+                    last = last.withTarget(destination.label());
+                    instructions.set(instructions.size() - 1, last);
+                }
+                if (last.opcode == OpCode.JUMPI && !block.isPinned() && isExit(destination)) {
+                    instructions.set(instructions.size() - 1, destination.instructions.get(0));
+                }
+            }
+            if (block.fallsThrough()) {
+                cfg.setFallThrough(block, destination(cfg, block.getFallThrough()));
+            }
+        }
+        return cfg;
+    }
+
+    /**
+     * The first block reached from a block which does anything.
+     */
+    private static BasicBlock destination(ControlFlowGraph cfg, BasicBlock block) {
+        Set<BasicBlock> seen = new HashSet<>();
+        while (seen.add(block)) {
+            BasicBlock next;
+            if (block.instructions.isEmpty()) {
+                next = block.getFallThrough();
+            } else if (block.isJumpOnly()) {
+                next = cfg.target(block.terminator());
+            } else {
+                next = null;
+            }
+            if (next == null) break;
+            block = next;
+        }
+        return block;
+    }
+
+    private static boolean isExit(BasicBlock block) {
+        if (block.instructions.size() != 1) return false;
+        OpCode opcode = block.instructions.get(0).opcode;
+        return opcode == OpCode.RET || opcode == OpCode.HALT;
+    }
+}
@@ -0,0 +1,69 @@
+package ir;
+
+import java.util.*;
+
+/**
+ * Computes the maximum depth the operand stack reaches in the main body and
+ * in each method, counted from the point where the code is entered (so the
+ * locals allocated by a method count, but its arguments do not).
+ * The depth on entry to each block is propagated along the edges of the
+ * control-flow graph; a call counts as a single instruction, since its
+ * callee is measured separately.
+ */
+public class StackDepth {
+
+    private StackDepth() {}
+
+    /**
+     * The maximum stack depth of the main body (under the name "main") and
+     * of each method (under its entry label), in code order.
+     * A region whose depth cannot be determined is left out.
+     */
+    public static Map<String, Integer> maxDepths(ControlFlowGraph cfg) {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        List<BasicBlock> blocks = cfg.blocks();
+        for (BasicBlock entry : blocks) {
+            // a method only reached by tail calls is not a calli target
+            boolean isMethod = entry.labels.stream().anyMatch(l -> l.name != null && l.name.startsWith("$_"));
+            if (entry != blocks.get(0) && !isMethod) continue;
+            Integer max = maxDepth(cfg, entry);
+            if (max != null) depths.put(entry == blocks.get(0) ? "main" : entry.label().labelName(), max);
+        }
+        return depths;
+    }
+
+    /**
+     * The maximum stack depth reached from an entry block, or null if it
+     * cannot be determined.
+     */
+    public static Integer maxDepth(ControlFlowGraph cfg, BasicBlock entry) {
+        Map<BasicBlock, Integer> atEntry = new HashMap<>();
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        atEntry.put(entry, 0);
+        work.add(entry);
+        int max = 0;
+        while (!work.isEmpty()) {
+            BasicBlock block = work.removeFirst();
+            int depth = atEntry.get(block);
+            Instruction previous = null;
+            for (Instruction instruction : block.instructions) {
+                StackEffect effect = StackEffect.of(instruction, previous);
+                if (effect == null) return null;
+                depth += effect.net();
+                max = Math.max(max, depth);
+                previous = instruction;
+            }
+            for (BasicBlock successor : cfg.successors(block)) {
+                Integer known = atEntry.get(successor);
+                // the code generator keeps the depth the same on every path,
+                // so a block is only analysed again if it is reached deeper
+                if (known == null || known < depth) {
+                    atEntry.put(successor, depth);
+                    if (depth > 1 << 16) return null;
+                    work.add(successor);
+                }
+            }
+        }
+        return max;
+    }
+}
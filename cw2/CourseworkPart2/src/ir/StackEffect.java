@@ -0,0 +1,94 @@
+package ir;
+
+import stackmachine.machine.OpCode;
+
+/**
+ * The effect of an SSM instruction on the operand stack: how many values
+ * it pops and how many it pushes.
+ * A calli pops the arguments of the call as well as their count, which is
+ * pushed by the instruction just before it, and pushes the value returned.
+ * Instructions which do not return (halt, ret and the jumps) are given the
+ * effect they have before control leaves.
+ */
+public final class StackEffect {
+
+    public final int pops;
+    public final int pushes;
+
+    private StackEffect(int pops, int pushes) {
+        this.pops = pops;
+        this.pushes = pushes;
+    }
+
+    /**
+     * The change in the depth of the stack.
+     */
+    public int net() {
+        return pushes - pops;
+    }
+
+    /**
+     * The stack effect of an instruction.
+     * @param instruction the instruction
+     * @param previous the instruction before it in the same block, or null
+     * @return the effect, or null if it cannot be determined (always for
+     *         an opaque instruction)
+     */
+    public static StackEffect of(Instruction instruction, Instruction previous) {
+        if (instruction.isOpaque()) return null;
+        switch (instruction.opcode) {
+            case NOP:
+            case HALT:
+            case JUMPI:
+                return new StackEffect(0, 0);
+            case DUP:
+                return new StackEffect(1, 2);
+            case POP:
+            case JUMP:
+            case JUMPI_Z:
+            case STOREI:
+            case SET_SP:
+            case SET_FP:
+                return new StackEffect(1, 0);
+            case SWAP:
+                return new StackEffect(2, 2);
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+                return new StackEffect(2, 1);
+            case TEST_Z:
+            case TEST_N:
+            case LOAD:
+                return new StackEffect(1, 1);
+            case JUMP_Z:
+            case STORE:
+            case RET:
+                return new StackEffect(2, 0);
+            case LOADI:
+            case PUSH:
+            case GET_SP:
+            case GET_FP:
+            case GET_DP:
+                return new StackEffect(0, 1);
+            case SALLOC:
+                return count(instruction) == null ? null : new StackEffect(0, count(instruction));
+            case CALLI:
+                Integer args = previous != null && previous.opcode == OpCode.PUSH ? count(previous) : null;
+                return args == null ? null : new StackEffect(args + 1, 1);
+            case SYSC:
+                return "OUT_LN".equals(instruction.name) ? new StackEffect(0, 0) : new StackEffect(1, 0);
+            default:
+                return null;
+        }
+    }
+
+    private static Integer count(Instruction instruction) {
+        return instruction.hasNumberOperand() ? instruction.number : null;
+    }
+
+    @Override
+    public String toString() {
+        return "-" + pops + "+" + pushes;
+    }
+}
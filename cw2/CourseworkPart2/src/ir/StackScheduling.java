@@ -0,0 +1,77 @@
+package ir;
+
+import stackmachine.machine.OpCode;
+
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * A CFG pass which removes the swap before a store by computing the
+ * address earlier.
+ * In "value; address; swap; store" the address is a frame address
+ * (get_fp; push k; add) or a constant, which does not depend on anything
+ * the value's code might do, so it can be moved to just before the code
+ * which computes the value: "address; value; store". The instructions
+ * which compute the value are found using the stack effect of each
+ * instruction, and only ever within the same block, so the order in which
+ * values are computed does not change.
+ */
+public class StackScheduling implements UnaryOperator<ControlFlowGraph> {
+
+    @Override
+    public ControlFlowGraph apply(ControlFlowGraph cfg) {
+        for (BasicBlock block : cfg.blocks()) {
+            if (!block.isPinned()) schedule(block.instructions);
+        }
+        return cfg;
+    }
+
+    private static void schedule(List<Instruction> code) {
+        for (int i = 0; i < code.size(); i++) {
+            int length = addressLength(code, i);
+            if (length == 0 || i + length + 1 >= code.size()) continue;
+            if (code.get(i + length).opcode != OpCode.SWAP || code.get(i + length + 1).opcode != OpCode.STORE) {
+                continue;
+            }
+            int start = valueStart(code, i);
+            if (start < 0) continue;
+            List<Instruction> address = List.copyOf(code.subList(i, i + length));
+            code.subList(i, i + length + 1).clear();
+            code.addAll(start, address);
+        }
+    }
+
+    /**
+     * The length of the address computation starting at position i, or 0.
+     */
+    private static int addressLength(List<Instruction> code, int i) {
+        if (code.get(i).opcode == OpCode.PUSH) return 1;
+        if (i + 2 < code.size() && code.get(i).opcode == OpCode.GET_FP
+                && code.get(i + 1).opcode == OpCode.PUSH && code.get(i + 2).opcode == OpCode.ADD) {
+            return 3;
+        }
+        return 0;
+    }
+
+    /**
+     * The start of the shortest sequence of instructions ending just before
+     * position end which pushes one value without using any value already
+     * on the stack, or -1 if there is none (or the frame pointer changes in
+     * it).
+     */
+    private static int valueStart(List<Instruction> code, int end) {
+        int net = 0;
+        int low = 0;
+        for (int j = end - 1; j >= 0; j--) {
+            Instruction instruction = code.get(j);
+            if (instruction.opcode == OpCode.SET_FP) return -1;
+            StackEffect effect = StackEffect.of(instruction, j > 0 ? code.get(j - 1) : null);
+            if (effect == null) return -1;
+            // prepend the instruction to the sequence j+1 .. end-1
+            low = Math.min(-effect.pops, effect.net() + low);
+            net += effect.net();
+            if (net == 1 && low >= 0) return j;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,23 @@
+package ir;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * A CFG pass which removes the blocks that cannot be reached from the start
+ * of the program, a method entry or a pinned block.
+ */
+public class UnreachableBlocks implements UnaryOperator<ControlFlowGraph> {
+
+    @Override
+    public ControlFlowGraph apply(ControlFlowGraph cfg) {
+        Set<BasicBlock> reached = new HashSet<>();
+        Deque<BasicBlock> work = new ArrayDeque<>(cfg.entries());
+        while (!work.isEmpty()) {
+            BasicBlock block = work.removeFirst();
+            if (reached.add(block)) work.addAll(cfg.successors(block));
+        }
+        cfg.blocks().removeIf(block -> !reached.contains(block));
+        return cfg;
+    }
+}
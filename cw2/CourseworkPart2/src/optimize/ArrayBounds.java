@@ -0,0 +1,154 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeWalker;
+
+import java.util.*;
+
+/**
+ * A range analysis which finds the array accesses a[i] that are always in
+ * bounds because they are guarded by a counted loop:
+ * <pre>
+ *     i = 0;
+ *     while (i &lt; a.length) { ... a[i] ... i = i + 1; }
+ * </pre>
+ * The index is known to be at least 0 when the loop is entered (it was last
+ * assigned a non-negative constant) and is only ever increased by 0 or 1 in
+ * the body, so it stays non-negative; the guard bounds it above until the
+ * first statement of the body which assigns it. The array cannot be null,
+ * since the guard has just read its length. Neither the index nor the array
+ * may be assigned anywhere else in the loop, and nothing between the
+ * initialization and the end of the loop may make a call, since a call
+ * could assign a global.
+ * An access is also in bounds in the right operand of an &amp;&amp; whose left
+ * operand is the guard.
+ */
+public class ArrayBounds {
+
+    private final Set<ExpArrayAccess> inBounds = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private ArrayBounds() {}
+
+    /**
+     * The one-dimensional array accesses in a program which are proven to
+     * be in bounds (compared by identity).
+     */
+    public static Set<ExpArrayAccess> inBounds(Program program) {
+        ArrayBounds analysis = new ArrayBounds();
+        analysis.analyse(program.body);
+        for (MethodDecl method : program.methods) analysis.analyse(method.body);
+        return analysis.inBounds;
+    }
+
+    private void analyse(List<Stm> stms) {
+        for (int k = 0; k < stms.size(); k++) {
+            Stm stm = stms.get(k);
+            if (stm instanceof StmWhile) {
+                analyse(stms.subList(0, k), (StmWhile) stm);
+            }
+            analyse(stm);
+        }
+    }
+
+    private void analyse(Stm stm) {
+        if (stm instanceof StmBlock) {
+            analyse(((StmBlock) stm).stms);
+        } else if (stm instanceof StmIf) {
+            analyse(statements(((StmIf) stm).trueBranch));
+            analyse(statements(((StmIf) stm).falseBranch));
+        } else if (stm instanceof StmWhile) {
+            analyse(statements(((StmWhile) stm).body));
+        } else if (stm instanceof StmSwitch) {
+            for (StmSwitch.Case c : ((StmSwitch) stm).cases) analyse(statements(c.stm));
+            analyse(statements(((StmSwitch) stm).defaultCase));
+        }
+    }
+
+    /**
+     * Find the in-bounds accesses guarded by a loop.
+     * @param before the statements before the loop in the same list
+     */
+    private void analyse(List<Stm> before, StmWhile loop) {
+        Exp guard = loop.exp;
+        Exp rest = null;
+        if (guard instanceof ExpAnd) {
+            rest = ((ExpAnd) guard).right;
+            guard = ((ExpAnd) guard).left;
+        }
+        if (!(guard instanceof ExpLessThan)) return;
+        ExpLessThan lessThan = (ExpLessThan) guard;
+        if (!(lessThan.left instanceof ExpVar) || !(lessThan.right instanceof ExpArrayLength)) return;
+        Exp array = ((ExpArrayLength) lessThan.right).array;
+        if (!(array instanceof ExpVar)) return;
+        String index = ((ExpVar) lessThan.left).varName;
+        String arrayName = ((ExpVar) array).varName;
+
+        if (!isNonNegativeOnEntry(before, index) || Effects.hasCalls(loop)) return;
+        List<Stm> body = statements(loop.body);
+        Set<String> assigned = Effects.assignedVars(loop.body);
+        if (assigned.contains(arrayName) || !onlyIncremented(loop.body, index)) return;
+
+        if (rest != null) mark(rest, index, arrayName);
+        for (Stm stm : body) {
+            if (Effects.assignedVars(stm).contains(index)) break;
+            mark(stm, index, arrayName);
+        }
+    }
+
+    /**
+     * Is the last assignment to the index before the loop a non-negative
+     * constant, with no call after it?
+     */
+    private static boolean isNonNegativeOnEntry(List<Stm> before, String index) {
+        for (int k = before.size() - 1; k >= 0; k--) {
+            Stm stm = before.get(k);
+            if (stm instanceof StmAssign && ((StmAssign) stm).varName.equals(index)) {
+                Exp exp = ((StmAssign) stm).exp;
+                return exp instanceof ExpInt && ((ExpInt) exp).value >= 0;
+            }
+            if (Effects.hasCalls(stm) || Effects.assignedVars(stm).contains(index)) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Is every assignment to the index in a fragment of the form
+     * index = index + 0 or index = index + 1?
+     */
+    private static boolean onlyIncremented(Stm stm, String index) {
+        boolean[] ok = {true};
+        new TreeWalker() {
+            @Override
+            public Void visit(StmAssign stmAssign) {
+                if (stmAssign.varName.equals(index) && !isIncrement(stmAssign.exp, index)) ok[0] = false;
+                return super.visit(stmAssign);
+            }
+        }.walk(stm);
+        return ok[0];
+    }
+
+    private static boolean isIncrement(Exp exp, String index) {
+        if (!(exp instanceof ExpPlus)) return false;
+        ExpPlus plus = (ExpPlus) exp;
+        return plus.left instanceof ExpVar && ((ExpVar) plus.left).varName.equals(index)
+                && plus.right instanceof ExpInt && (((ExpInt) plus.right).value == 0 || ((ExpInt) plus.right).value == 1);
+    }
+
+    private void mark(AST node, String index, String arrayName) {
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpArrayAccess expArrayAccess) {
+                List<Exp> indexers = expArrayAccess.indexers;
+                if (expArrayAccess.id.equals(arrayName) && indexers.size() == 1
+                        && indexers.get(0) instanceof ExpVar && ((ExpVar) indexers.get(0)).varName.equals(index)) {
+                    inBounds.add(expArrayAccess);
+                }
+                return super.visit(expArrayAccess);
+            }
+        }.walk(node);
+    }
+
+    private static List<Stm> statements(Stm stm) {
+        return stm instanceof StmBlock ? ((StmBlock) stm).stms : List.of(stm);
+    }
+}
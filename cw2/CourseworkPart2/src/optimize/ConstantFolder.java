@@ -0,0 +1,324 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeRewriter;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * An AST-to-AST pass which evaluates constant subexpressions at compile
+ * time and propagates the known values of int variables through
+ * straight-line code.
+ * Arithmetic and comparisons are folded exactly as the generated SSM code
+ * would compute them (for example, a &lt; b is folded as a - b &lt; 0).
+ * Divisions which would halt the program are left alone.
+ * Global variables start out as 0 in the main body and unknown in methods;
+ * any call forgets everything known about globals. Loops are analysed until
+ * a fixed point is reached, starting from the optimistic assumption that
+ * every variable keeps its value on entry, so a variable which the loop
+ * only ever sets to the same constant stays known, and branches which can
+ * never be taken do not spoil what is known (as in sparse conditional
+ * constant propagation).
+ */
+public class ConstantFolder extends TreeRewriter implements UnaryOperator<Program> {
+
+    /** the known values of variables at the current program point */
+    private Map<String, Integer> env;
+
+    /** the int variables in scope, whose values can be tracked */
+    private Set<String> tracked;
+
+    /** the parameters and locals of the current method, which calls cannot change */
+    private Set<String> frameVars;
+
+    @Override
+    public Program apply(Program program) {
+        Set<String> intGlobals = new HashSet<>();
+        for (VarDecl decl : program.varDecls) {
+            if (decl.type instanceof TypeInt) intGlobals.add(decl.name);
+        }
+
+        tracked = intGlobals;
+        frameVars = Set.of();
+        env = new HashMap<>();
+        for (String name : intGlobals) env.put(name, 0);
+        List<Stm> body = rewriteStms(program.body);
+
+        List<MethodDecl> methods = new ArrayList<>();
+        for (MethodDecl method : program.methods) {
+            tracked = new HashSet<>(intGlobals);
+            frameVars = new HashSet<>();
+            for (VarDecl decl : concat(method.formals, method.locals)) {
+                frameVars.add(decl.name);
+                if (decl.type instanceof TypeInt) tracked.add(decl.name);
+                else tracked.remove(decl.name);
+            }
+            env = new HashMap<>();
+            methods.add(new MethodDecl(method.id, method.returnType, method.formals, method.locals,
+                    rewriteStms(method.body)));
+        }
+        return new Program(program.varDecls, body, methods);
+    }
+
+    private static List<VarDecl> concat(List<VarDecl> a, List<VarDecl> b) {
+        List<VarDecl> all = new ArrayList<>(a);
+        all.addAll(b);
+        return all;
+    }
+
+    /**
+     * Forget the values of all globals, as after a call.
+     */
+    private void forgetGlobals() {
+        env.keySet().retainAll(frameVars);
+    }
+
+    private static Map<String, Integer> meet(Map<String, Integer> a, Map<String, Integer> b) {
+        Map<String, Integer> result = new HashMap<>(a);
+        result.entrySet().removeIf(e -> !e.getValue().equals(b.get(e.getKey())));
+        return result;
+    }
+
+    private static Integer value(Exp exp) {
+        return exp instanceof ExpInt ? ((ExpInt) exp).value : null;
+    }
+
+    private static Exp bool(boolean b) {
+        return new ExpInt(b ? 1 : 0);
+    }
+
+    /**
+     * An expression with the same truth value as exp which evaluates to 0 or 1.
+     */
+    private static Exp normalize(Exp exp) {
+        Integer v = value(exp);
+        if (v != null) return bool(v != 0);
+        return Effects.isBoolean(exp) ? exp : new ExpNot(new ExpNot(exp));
+    }
+
+    // expressions
+
+    @Override
+    public AST visit(ExpVar expVar) {
+        Integer v = env.get(expVar.varName);
+        return v == null ? expVar : new ExpInt(v);
+    }
+
+    @Override
+    public AST visit(ExpPlus expPlus) {
+        Exp left = rewrite(expPlus.left), right = rewrite(expPlus.right);
+        Integer a = value(left), b = value(right);
+        if (a != null && b != null) return new ExpInt(a + b);
+        if (a != null && a == 0) return right;
+        if (b != null && b == 0) return left;
+        return new ExpPlus(left, right);
+    }
+
+    @Override
+    public AST visit(ExpMinus expMinus) {
+        Exp left = rewrite(expMinus.left), right = rewrite(expMinus.right);
+        Integer a = value(left), b = value(right);
+        if (a != null && b != null) return new ExpInt(a - b);
+        if (b != null && b == 0) return left;
+        return new ExpMinus(left, right);
+    }
+
+    @Override
+    public AST visit(ExpTimes expTimes) {
+        Exp left = rewrite(expTimes.left), right = rewrite(expTimes.right);
+        Integer a = value(left), b = value(right);
+        if (a != null && b != null) return new ExpInt(a * b);
+        if (a != null && a == 1) return right;
+        if (b != null && b == 1) return left;
+        if ((a != null && a == 0 && Effects.isSafe(right)) || (b != null && b == 0 && Effects.isSafe(left))) {
+            return new ExpInt(0);
+        }
+        return new ExpTimes(left, right);
+    }
+
+    @Override
+    public AST visit(ExpDiv expDiv) {
+        Exp left = rewrite(expDiv.left), right = rewrite(expDiv.right);
+        Integer a = value(left), b = value(right);
+        if (a != null && b != null && b != 0 && !(a == Integer.MIN_VALUE && b == -1)) return new ExpInt(a / b);
+        if (b != null && b == 1) return left;
+        return new ExpDiv(left, right);
+    }
+
+    @Override
+    public AST visit(ExpLessThan expLessThan) {
+        Exp left = rewrite(expLessThan.left), right = rewrite(expLessThan.right);
+        Integer a = value(left), b = value(right);
+        if (a != null && b != null) return bool(a - b < 0);
+        return new ExpLessThan(left, right);
+    }
+
+    @Override
+    public AST visit(ExpLessThanEqual expLessThanEqual) {
+        Exp left = rewrite(expLessThanEqual.left), right = rewrite(expLessThanEqual.right);
+        Integer a = value(left), b = value(right);
+        if (a != null && b != null) return bool(a - (b + 1) < 0);
+        return new ExpLessThanEqual(left, right);
+    }
+
+    @Override
+    public AST visit(ExpEqual expEqual) {
+        Exp left = rewrite(expEqual.left), right = rewrite(expEqual.right);
+        Integer a = value(left), b = value(right);
+        if (a != null && b != null) return bool(a - b == 0);
+        return new ExpEqual(left, right);
+    }
+
+    @Override
+    public AST visit(ExpNot expNot) {
+        Exp e = rewrite(expNot.e);
+        Integer a = value(e);
+        if (a != null) return bool(a == 0);
+        return new ExpNot(e);
+    }
+
+    @Override
+    public AST visit(ExpAnd expAnd) {
+        Exp left = rewrite(expAnd.left);
+        Integer a = value(left);
+        if (a != null) {
+            // the right operand is either never evaluated or decides the result
+            return a == 0 ? new ExpInt(0) : normalize(rewrite(expAnd.right));
+        }
+        Exp right = rewrite(expAnd.right);
+        Integer b = value(right);
+        if (b != null && Effects.isSafe(left)) {
+            return b == 0 ? new ExpInt(0) : normalize(left);
+        }
+        return new ExpAnd(left, right);
+    }
+
+    @Override
+    public AST visit(ExpOr expOr) {
+        Exp left = rewrite(expOr.left);
+        Integer a = value(left);
+        if (a != null) {
+            return a != 0 ? new ExpInt(1) : normalize(rewrite(expOr.right));
+        }
+        Exp right = rewrite(expOr.right);
+        Integer b = value(right);
+        if (b != null && Effects.isSafe(left)) {
+            return b != 0 ? new ExpInt(1) : normalize(left);
+        }
+        return new ExpOr(left, right);
+    }
+
+    @Override
+    public AST visit(ExpMethodCall expMethodCall) {
+        // the arguments are not necessarily evaluated left-to-right, so if
+        // any of them makes a call, none of them can rely on a global
+        if (expMethodCall.arguments.stream().anyMatch(Effects::hasCalls)) {
+            forgetGlobals();
+        }
+        List<Exp> arguments = rewriteExps(expMethodCall.arguments);
+        forgetGlobals();
+        return new ExpMethodCall(expMethodCall.methodName, arguments);
+    }
+
+    // statements
+
+    @Override
+    public AST visit(StmMethodCall stmMethodCall) {
+        if (stmMethodCall.actuals.stream().anyMatch(Effects::hasCalls)) {
+            forgetGlobals();
+        }
+        List<Exp> actuals = rewriteExps(stmMethodCall.actuals);
+        forgetGlobals();
+        return new StmMethodCall(stmMethodCall.id, actuals);
+    }
+
+    @Override
+    public AST visit(StmAssign stmAssign) {
+        Exp exp = rewrite(stmAssign.exp);
+        Integer v = value(exp);
+        if (v != null && tracked.contains(stmAssign.varName)) {
+            env.put(stmAssign.varName, v);
+        } else {
+            env.remove(stmAssign.varName);
+        }
+        return new StmAssign(stmAssign.varName, exp);
+    }
+
+    @Override
+    public AST visit(StmBlock stmBlock) {
+        List<Stm> stms = new ArrayList<>();
+        for (Stm stm : stmBlock.stms) {
+            Stm s = rewrite(stm);
+            if (!(s instanceof StmBlock && ((StmBlock) s).stms.isEmpty())) stms.add(s);
+        }
+        return new StmBlock(stms);
+    }
+
+    @Override
+    public AST visit(StmIf stmIf) {
+        Exp exp = rewrite(stmIf.exp);
+        Integer v = value(exp);
+        if (v != null) {
+            return rewrite(v != 0 ? stmIf.trueBranch : stmIf.falseBranch);
+        }
+        Map<String, Integer> before = new HashMap<>(env);
+        Stm trueBranch = rewrite(stmIf.trueBranch);
+        Map<String, Integer> afterTrue = env;
+        env = before;
+        Stm falseBranch = rewrite(stmIf.falseBranch);
+        env = meet(afterTrue, env);
+        return new StmIf(exp, trueBranch, falseBranch);
+    }
+
+    @Override
+    public AST visit(StmWhile stmWhile) {
+        // optimistically assume that the variables keep the values they have
+        // on entry, and analyse the loop again with fewer assumptions until
+        // the values at the end of the body agree with them
+        Map<String, Integer> assumed = new HashMap<>(env);
+        while (true) {
+            env = new HashMap<>(assumed);
+            Integer v = value(rewrite(stmWhile.exp));
+            if (v != null && v == 0) break;
+            rewrite(stmWhile.body);
+            Map<String, Integer> next = meet(assumed, env);
+            if (next.equals(assumed)) break;
+            assumed = next;
+        }
+        env = assumed;
+        Exp exp = rewrite(stmWhile.exp);
+        Integer v = value(exp);
+        if (v != null && v == 0) {
+            return new StmBlock();
+        }
+        Map<String, Integer> atExit = new HashMap<>(env);
+        Stm body = rewrite(stmWhile.body);
+        env = atExit;
+        return new StmWhile(exp, body);
+    }
+
+    @Override
+    public AST visit(StmSwitch stmSwitch) {
+        Exp caseExp = rewrite(stmSwitch.caseExp);
+        Integer v = value(caseExp);
+        if (v != null) {
+            for (StmSwitch.Case c : stmSwitch.cases) {
+                if (c.caseNumber == v) return rewrite(c.stm);
+            }
+            return rewrite(stmSwitch.defaultCase);
+        }
+        Map<String, Integer> before = env;
+        Map<String, Integer> after = null;
+        List<StmSwitch.Case> cases = new ArrayList<>();
+        for (StmSwitch.Case c : stmSwitch.cases) {
+            env = new HashMap<>(before);
+            cases.add(new StmSwitch.Case(c.caseNumber, rewrite(c.stm)));
+            after = after == null ? env : meet(after, env);
+        }
+        env = new HashMap<>(before);
+        Stm defaultCase = rewrite(stmSwitch.defaultCase);
+        env = after == null ? env : meet(after, env);
+        return new StmSwitch(caseExp, defaultCase, cases);
+    }
+}
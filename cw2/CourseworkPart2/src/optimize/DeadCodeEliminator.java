@@ -0,0 +1,80 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeRewriter;
+import ast.util.TreeWalker;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * An AST-to-AST pass which removes code that can never run: methods which
+ * cannot be reached through the call graph from the main body, and
+ * statements following a statement which never completes normally (see
+ * Stm.canCompleteNormally).
+ */
+public class DeadCodeEliminator extends TreeRewriter implements UnaryOperator<Program> {
+
+    @Override
+    public Program apply(Program program) {
+        Map<String, MethodDecl> byName = new HashMap<>();
+        for (MethodDecl method : program.methods) {
+            byName.put(method.id, method);
+        }
+
+        Set<String> reachable = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>(calledMethods(program.body));
+        while (!work.isEmpty()) {
+            String name = work.pop();
+            MethodDecl method = byName.get(name);
+            if (method != null && reachable.add(name)) {
+                work.addAll(calledMethods(method.body));
+            }
+        }
+
+        List<MethodDecl> methods = new ArrayList<>();
+        for (MethodDecl method : program.methods) {
+            if (reachable.contains(method.id)) {
+                methods.add(rewrite(method));
+            }
+        }
+        return new Program(program.varDecls, rewriteStms(program.body), methods);
+    }
+
+    /**
+     * The names of the methods called anywhere in a list of statements.
+     */
+    private static Set<String> calledMethods(List<Stm> stms) {
+        Set<String> names = new HashSet<>();
+        TreeWalker walker = new TreeWalker() {
+            @Override
+            public Void visit(ExpMethodCall expMethodCall) {
+                names.add(expMethodCall.methodName);
+                return super.visit(expMethodCall);
+            }
+
+            @Override
+            public Void visit(StmMethodCall stmMethodCall) {
+                names.add(stmMethodCall.id);
+                return super.visit(stmMethodCall);
+            }
+        };
+        walker.walk(stms);
+        return names;
+    }
+
+    /**
+     * Rewrite a list of statements, dropping everything after the first
+     * statement which never completes normally.
+     */
+    @Override
+    public List<Stm> rewriteStms(List<Stm> stms) {
+        List<Stm> result = new ArrayList<>(stms.size());
+        for (Stm stm : stms) {
+            Stm s = rewrite(stm);
+            result.add(s);
+            if (!s.canCompleteNormally()) break;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,156 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeWalker;
+
+import java.util.*;
+
+/**
+ * An AST-to-AST pass which removes assignments to variables whose values
+ * are never read again.
+ * Liveness is computed backwards through each body; a loop is analysed
+ * until the variables live at its head stop changing. Only the parameters
+ * and locals of a method, and the globals which no method mentions (in the
+ * main body), are considered, since any other global might be read by a
+ * call. An assignment is only removed if its expression cannot halt the
+ * program or make a call; an array access counts as safe if ArrayBounds
+ * proves it in bounds.
+ */
+public class DeadStoreEliminator extends ScopedRewriter {
+
+    /** the globals mentioned in some method */
+    private Set<String> methodGlobals;
+
+    /** the array accesses which cannot halt the program */
+    private Set<ExpArrayAccess> inBounds;
+
+    @Override
+    public Program apply(Program program) {
+        inBounds = ArrayBounds.inBounds(program);
+        methodGlobals = new HashSet<>();
+        for (MethodDecl method : program.methods) methodGlobals.addAll(usedVars(method));
+        return super.apply(program);
+    }
+
+    /**
+     * Only called by apply, for whole bodies, at the end of which no
+     * variable that is considered is live.
+     */
+    @Override
+    public List<Stm> rewriteStms(List<Stm> stms) {
+        return eliminate(stms, new HashSet<>());
+    }
+
+    private boolean isConsidered(String varName) {
+        return isFrameVar(varName) || (method == null && !methodGlobals.contains(varName));
+    }
+
+    /**
+     * Remove the dead assignments from a list of statements.
+     * @param stms the statements
+     * @param live the variables live after the statements; updated to the
+     *             variables live before them
+     */
+    private List<Stm> eliminate(List<Stm> stms, Set<String> live) {
+        LinkedList<Stm> result = new LinkedList<>();
+        for (int i = stms.size() - 1; i >= 0; i--) {
+            Stm stm = eliminate(stms.get(i), live);
+            if (stm != null) result.addFirst(stm);
+        }
+        return result;
+    }
+
+    /**
+     * Remove the dead assignments from a statement.
+     * @return the statement, or null if it is a dead assignment
+     */
+    private Stm eliminate(Stm stm, Set<String> live) {
+        if (stm instanceof StmAssign) {
+            StmAssign stmAssign = (StmAssign) stm;
+            if (isConsidered(stmAssign.varName) && !live.contains(stmAssign.varName)
+                    && Effects.isSafe(stmAssign.exp, inBounds)) {
+                return null;
+            }
+            live.remove(stmAssign.varName);
+            live.addAll(usedVars(stmAssign.exp));
+            return stm;
+        } else if (stm instanceof StmBlock) {
+            return new StmBlock(eliminate(((StmBlock) stm).stms, live));
+        } else if (stm instanceof StmIf) {
+            StmIf stmIf = (StmIf) stm;
+            Set<String> liveFalse = new HashSet<>(live);
+            Stm trueBranch = eliminate(stmIf.trueBranch, live);
+            Stm falseBranch = eliminate(stmIf.falseBranch, liveFalse);
+            live.addAll(liveFalse);
+            live.addAll(usedVars(stmIf.exp));
+            return new StmIf(stmIf.exp, orEmpty(trueBranch), orEmpty(falseBranch));
+        } else if (stm instanceof StmWhile) {
+            StmWhile stmWhile = (StmWhile) stm;
+            Set<String> atHead = new HashSet<>(live);
+            atHead.addAll(usedVars(stmWhile.exp));
+            while (true) {
+                Set<String> next = new HashSet<>(atHead);
+                eliminate(stmWhile.body, next);
+                next.addAll(atHead);
+                if (next.equals(atHead)) break;
+                atHead = next;
+            }
+            Stm body = eliminate(stmWhile.body, new HashSet<>(atHead));
+            live.clear();
+            live.addAll(atHead);
+            return new StmWhile(stmWhile.exp, orEmpty(body));
+        } else if (stm instanceof StmSwitch) {
+            StmSwitch stmSwitch = (StmSwitch) stm;
+            Set<String> before = new HashSet<>();
+            List<StmSwitch.Case> cases = new ArrayList<>();
+            for (StmSwitch.Case c : stmSwitch.cases) {
+                Set<String> liveCase = new HashSet<>(live);
+                cases.add(new StmSwitch.Case(c.caseNumber, orEmpty(eliminate(c.stm, liveCase))));
+                before.addAll(liveCase);
+            }
+            Stm defaultCase = orEmpty(eliminate(stmSwitch.defaultCase, live));
+            live.addAll(before);
+            live.addAll(usedVars(stmSwitch.caseExp));
+            return new StmSwitch(stmSwitch.caseExp, defaultCase, cases);
+        } else if (stm instanceof StmReturn) {
+            // nothing in the frame is read after a return
+            live.clear();
+            live.addAll(usedVars(stm));
+            return stm;
+        } else {
+            live.addAll(usedVars(stm));
+            return stm;
+        }
+    }
+
+    private static Stm orEmpty(Stm stm) {
+        return stm == null ? new StmBlock() : stm;
+    }
+
+    /**
+     * The variables read anywhere in a fragment.
+     */
+    private static Set<String> usedVars(AST node) {
+        Set<String> names = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpVar expVar) {
+                names.add(expVar.varName);
+                return null;
+            }
+
+            @Override
+            public Void visit(ExpArrayAccess expArrayAccess) {
+                names.add(expArrayAccess.id);
+                return super.visit(expArrayAccess);
+            }
+
+            @Override
+            public Void visit(StmArrayAssign stmArrayAssign) {
+                names.add(stmArrayAssign.id);
+                return super.visit(stmArrayAssign);
+            }
+        }.walk(node);
+        return names;
+    }
+}
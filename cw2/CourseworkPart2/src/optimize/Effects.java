@@ -0,0 +1,124 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeWalker;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Queries about the side effects of AST fragments, shared by the
+ * AST-to-AST optimization passes.
+ */
+public class Effects {
+
+    private Effects() {}
+
+    /**
+     * Does the fragment contain a method call?
+     * Any call may print, write globals or write array elements.
+     */
+    public static boolean hasCalls(AST node) {
+        boolean[] found = {false};
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpMethodCall expMethodCall) {
+                found[0] = true;
+                return null;
+            }
+
+            @Override
+            public Void visit(StmMethodCall stmMethodCall) {
+                found[0] = true;
+                return null;
+            }
+        }.walk(node);
+        return found[0];
+    }
+
+    /**
+     * Does the fragment assign to an array element?
+     */
+    public static boolean hasArrayStores(AST node) {
+        boolean[] found = {false};
+        new TreeWalker() {
+            @Override
+            public Void visit(StmArrayAssign stmArrayAssign) {
+                found[0] = true;
+                return null;
+            }
+        }.walk(node);
+        return found[0];
+    }
+
+    /**
+     * Can the expression be evaluated any number of times (including not at
+     * all) without changing the behaviour of the program? This rules out
+     * calls, array accesses (which halt on null or out of bounds) and division by anything
+     * other than a non-zero constant.
+     */
+    public static boolean isSafe(Exp exp) {
+        return isSafe(exp, Collections.emptySet());
+    }
+
+    /**
+     * Like isSafe(Exp), but the accesses in a set of array accesses known to
+     * be in bounds (see ArrayBounds) are safe too, if their indexes are.
+     */
+    public static boolean isSafe(Exp exp, Set<ExpArrayAccess> inBounds) {
+        if (exp instanceof ExpInt || exp instanceof ExpVar) {
+            return true;
+        } else if (exp instanceof ExpArrayAccess && inBounds.contains(exp)) {
+            return isSafe(((ExpArrayAccess) exp).indexers.get(0), inBounds);
+        } else if (exp instanceof ExpPlus) {
+            return isSafe(((ExpPlus) exp).left, inBounds) && isSafe(((ExpPlus) exp).right, inBounds);
+        } else if (exp instanceof ExpMinus) {
+            return isSafe(((ExpMinus) exp).left, inBounds) && isSafe(((ExpMinus) exp).right, inBounds);
+        } else if (exp instanceof ExpTimes) {
+            return isSafe(((ExpTimes) exp).left, inBounds) && isSafe(((ExpTimes) exp).right, inBounds);
+        } else if (exp instanceof ExpDiv) {
+            Exp divisor = ((ExpDiv) exp).right;
+            return isSafe(((ExpDiv) exp).left, inBounds) && divisor instanceof ExpInt && ((ExpInt) divisor).value != 0;
+        } else if (exp instanceof ExpLessThan) {
+            return isSafe(((ExpLessThan) exp).left, inBounds) && isSafe(((ExpLessThan) exp).right, inBounds);
+        } else if (exp instanceof ExpLessThanEqual) {
+            return isSafe(((ExpLessThanEqual) exp).left, inBounds) && isSafe(((ExpLessThanEqual) exp).right, inBounds);
+        } else if (exp instanceof ExpEqual) {
+            return isSafe(((ExpEqual) exp).left, inBounds) && isSafe(((ExpEqual) exp).right, inBounds);
+        } else if (exp instanceof ExpAnd) {
+            return isSafe(((ExpAnd) exp).left, inBounds) && isSafe(((ExpAnd) exp).right, inBounds);
+        } else if (exp instanceof ExpOr) {
+            return isSafe(((ExpOr) exp).left, inBounds) && isSafe(((ExpOr) exp).right, inBounds);
+        } else if (exp instanceof ExpNot) {
+            return isSafe(((ExpNot) exp).e, inBounds);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Does the expression always evaluate to 0 or 1?
+     */
+    public static boolean isBoolean(Exp exp) {
+        return exp instanceof ExpLessThan || exp instanceof ExpLessThanEqual || exp instanceof ExpEqual
+                || exp instanceof ExpNot || exp instanceof ExpAnd || exp instanceof ExpOr
+                || (exp instanceof ExpInt && (((ExpInt) exp).value == 0 || ((ExpInt) exp).value == 1));
+    }
+
+    /**
+     * The names of all the variables assigned (as a whole, not element-wise)
+     * anywhere in the fragment.
+     */
+    public static Set<String> assignedVars(AST node) {
+        Set<String> names = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            public Void visit(StmAssign stmAssign) {
+                names.add(stmAssign.varName);
+                return super.visit(stmAssign);
+            }
+        }.walk(node);
+        return names;
+    }
+}
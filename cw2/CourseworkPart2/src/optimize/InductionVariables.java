@@ -0,0 +1,172 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeRewriter;
+import ast.util.TreeWalker;
+
+import java.util.*;
+
+/**
+ * An AST-to-AST pass which reduces the strength of multiplications by
+ * induction variables in while loops.
+ * A basic induction variable is an int variable whose only assignment in
+ * the loop is a statement i = i + c or i = i - c (c a constant) at the top
+ * level of the body. A product i * k, where k is a constant or a variable
+ * the loop does not change, is then kept in a temporary which is set to
+ * i * k before the loop and has c * k added to it after the increment, so
+ * each use in the loop becomes a load instead of a multiplication.
+ * Since int arithmetic wraps, the temporary always equals i * k, overflow
+ * included.
+ * A product is only reduced if the estimated instructions saved on each
+ * iteration exceed the cost of updating the temporary.
+ * Inner loops are processed first.
+ */
+public class InductionVariables extends ScopedRewriter {
+
+    @Override
+    public AST visit(StmWhile stmWhile) {
+        Exp exp = stmWhile.exp;
+        Stm body = rewrite(stmWhile.body);
+        List<Stm> stms = new ArrayList<>(body instanceof StmBlock ? ((StmBlock) body).stms : List.of(body));
+        List<Stm> preheader = new ArrayList<>();
+
+        Set<String> assigned = Effects.assignedVars(body);
+        boolean calls = Effects.hasCalls(exp) || Effects.hasCalls(body);
+        Map<String, Integer> assignments = assignmentCounts(body);
+
+        for (int p = 0; p < stms.size(); p++) {
+            String i = inductionVar(stms.get(p));
+            if (i == null || assignments.getOrDefault(i, 0) != 1 || (calls && !isFrameVar(i))) continue;
+            int step = increment((StmAssign) stms.get(p));
+
+            // the products of i and a loop-invariant factor, grouped by factor
+            Map<String, Exp> factors = new LinkedHashMap<>();
+            Map<String, Integer> uses = new HashMap<>();
+            TreeWalker finder = new TreeWalker() {
+                @Override
+                public Void visit(ExpTimes expTimes) {
+                    Exp k = factor(expTimes, i);
+                    if (k != null && isInvariant(k, assigned, calls)) {
+                        String key = key(k);
+                        factors.putIfAbsent(key, k);
+                        uses.merge(key, 1, Integer::sum);
+                        return null;
+                    }
+                    return super.visit(expTimes);
+                }
+            };
+            finder.walk(exp);
+            finder.walk(stms);
+
+            for (Map.Entry<String, Exp> entry : factors.entrySet()) {
+                Exp k = entry.getValue();
+                Exp product = new ExpTimes(new ExpVar(i), k);
+                Exp delta = delta(k, Math.abs(step));
+                int update = tempCost() + tempCost() + cost(delta) + 2;
+                if (uses.get(entry.getKey()) * (cost(product) - tempCost()) <= update) continue;
+
+                String temp = newTemp(new TypeInt());
+                if (!(delta instanceof ExpInt || delta instanceof ExpVar)) {
+                    String deltaTemp = newTemp(new TypeInt());
+                    preheader.add(new StmAssign(deltaTemp, delta));
+                    delta = new ExpVar(deltaTemp);
+                }
+                preheader.add(new StmAssign(temp, product));
+
+                TreeRewriter replacer = new TreeRewriter() {
+                    @Override
+                    public AST visit(ExpTimes expTimes) {
+                        Exp factor = factor(expTimes, i);
+                        if (factor != null && key(factor).equals(entry.getKey())) return new ExpVar(temp);
+                        return super.visit(expTimes);
+                    }
+                };
+                exp = replacer.rewrite(exp);
+                for (int q = 0; q < stms.size(); q++) stms.set(q, replacer.rewrite(stms.get(q)));
+
+                Exp next = step > 0 ? new ExpPlus(new ExpVar(temp), delta) : new ExpMinus(new ExpVar(temp), delta);
+                stms.add(p + 1, new StmAssign(temp, next));
+            }
+        }
+
+        if (preheader.isEmpty()) {
+            return new StmWhile(exp, body);
+        }
+        preheader.add(new StmWhile(exp, new StmBlock(stms)));
+        return new StmBlock(preheader);
+    }
+
+    /**
+     * The variable incremented by a statement i = i + c, i = c + i or
+     * i = i - c, or null.
+     */
+    private static String inductionVar(Stm stm) {
+        if (!(stm instanceof StmAssign)) return null;
+        StmAssign stmAssign = (StmAssign) stm;
+        return increment(stmAssign) == 0 ? null : stmAssign.varName;
+    }
+
+    /**
+     * The constant added to the variable by an assignment, or 0 if it is not
+     * an increment.
+     */
+    private static int increment(StmAssign stmAssign) {
+        String i = stmAssign.varName;
+        Exp exp = stmAssign.exp;
+        if (exp instanceof ExpPlus) {
+            Exp left = ((ExpPlus) exp).left, right = ((ExpPlus) exp).right;
+            if (isVar(left, i) && right instanceof ExpInt) return ((ExpInt) right).value;
+            if (isVar(right, i) && left instanceof ExpInt) return ((ExpInt) left).value;
+        } else if (exp instanceof ExpMinus) {
+            Exp left = ((ExpMinus) exp).left, right = ((ExpMinus) exp).right;
+            if (isVar(left, i) && right instanceof ExpInt && ((ExpInt) right).value != Integer.MIN_VALUE) {
+                return -((ExpInt) right).value;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isVar(Exp exp, String name) {
+        return exp instanceof ExpVar && ((ExpVar) exp).varName.equals(name);
+    }
+
+    /**
+     * The other operand of a product of the variable i, or null.
+     */
+    private static Exp factor(ExpTimes expTimes, String i) {
+        if (isVar(expTimes.left, i)) return expTimes.right;
+        if (isVar(expTimes.right, i)) return expTimes.left;
+        return null;
+    }
+
+    private boolean isInvariant(Exp k, Set<String> assigned, boolean calls) {
+        if (k instanceof ExpInt) return true;
+        if (!(k instanceof ExpVar)) return false;
+        String name = ((ExpVar) k).varName;
+        return !assigned.contains(name) && (isFrameVar(name) || !calls);
+    }
+
+    private static String key(Exp k) {
+        return k instanceof ExpInt ? Integer.toString(((ExpInt) k).value) : ((ExpVar) k).varName;
+    }
+
+    /**
+     * The change in i * k when i changes by c.
+     */
+    private static Exp delta(Exp k, int c) {
+        if (k instanceof ExpInt) return new ExpInt(((ExpInt) k).value * c);
+        return c == 1 ? k : new ExpTimes(k, new ExpInt(c));
+    }
+
+    private static Map<String, Integer> assignmentCounts(Stm body) {
+        Map<String, Integer> counts = new HashMap<>();
+        new TreeWalker() {
+            @Override
+            public Void visit(StmAssign stmAssign) {
+                counts.merge(stmAssign.varName, 1, Integer::sum);
+                return super.visit(stmAssign);
+            }
+        }.walk(body);
+        return counts;
+    }
+}
@@ -0,0 +1,371 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeRewriter;
+import ast.util.TreeWalker;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * An AST-to-AST pass which replaces calls to small, non-recursive methods
+ * by the bodies of those methods.
+ * A function whose body is just "return e;", where e makes no calls, is
+ * inlined anywhere by substituting its (side-effect free) arguments into e.
+ * Otherwise a call which is the outermost expression of a statement (for
+ * example "x = f(a, b);" or "println f(a);") is replaced by assignments of
+ * the arguments to fresh temporaries standing for the parameters, then the
+ * body (with parameters and locals renamed to fresh temporaries), then the
+ * statement itself using the returned expression.
+ * Only methods which do not return before the end of their body are
+ * inlined this way, since the AST has no way to jump out of the middle.
+ * The pass is repeated a few times so that calls in inlined code are
+ * inlined too.
+ */
+public class Inliner extends ScopedRewriter {
+
+    /**
+     * The largest method body, counted in AST nodes, which is inlined.
+     */
+    public static final int MAX_INLINE_SIZE = 40;
+
+    private static final int MAX_ROUNDS = 3;
+
+    /** the methods which may be inlined, by name */
+    private Map<String, MethodDecl> candidates;
+
+    private boolean changed;
+
+    @Override
+    public Program apply(Program program) {
+        for (int round = 0; round < MAX_ROUNDS; ++round) {
+            candidates = candidates(program);
+            if (candidates.isEmpty()) break;
+            changed = false;
+            program = super.apply(program);
+            if (!changed) break;
+        }
+        return program;
+    }
+
+    /**
+     * The methods which are small enough to inline, are not recursive (even
+     * indirectly) and only return at the end of their body.
+     */
+    private static Map<String, MethodDecl> candidates(Program program) {
+        Map<String, Set<String>> callees = new HashMap<>();
+        for (MethodDecl m : program.methods) {
+            callees.put(m.id, calledMethods(m.body));
+        }
+        Map<String, MethodDecl> candidates = new HashMap<>();
+        for (MethodDecl m : program.methods) {
+            if (size(m.body) <= MAX_INLINE_SIZE && returnsOnlyAtEnd(m.body) && !reaches(callees, m.id, m.id)) {
+                candidates.put(m.id, m);
+            }
+        }
+        return candidates;
+    }
+
+    private static boolean reaches(Map<String, Set<String>> callees, String from, String to) {
+        Set<String> seen = new HashSet<>();
+        Deque<String> work = new ArrayDeque<>(callees.getOrDefault(from, Set.of()));
+        while (!work.isEmpty()) {
+            String name = work.pop();
+            if (name.equals(to)) return true;
+            if (seen.add(name)) work.addAll(callees.getOrDefault(name, Set.of()));
+        }
+        return false;
+    }
+
+    private static Set<String> calledMethods(List<Stm> stms) {
+        Set<String> names = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpMethodCall expMethodCall) {
+                names.add(expMethodCall.methodName);
+                return super.visit(expMethodCall);
+            }
+
+            @Override
+            public Void visit(StmMethodCall stmMethodCall) {
+                names.add(stmMethodCall.id);
+                return super.visit(stmMethodCall);
+            }
+        }.walk(stms);
+        return names;
+    }
+
+    private static int size(List<Stm> stms) {
+        int[] count = {0};
+        new TreeWalker() {
+            @Override
+            public void walk(ast.AST node) {
+                count[0]++;
+                super.walk(node);
+            }
+        }.walk(stms);
+        return count[0];
+    }
+
+    private static boolean returnsOnlyAtEnd(List<Stm> body) {
+        int returns = countReturns(body);
+        return returns == 0 || (returns == 1 && body.get(body.size() - 1) instanceof StmReturn);
+    }
+
+    private static int countReturns(List<Stm> stms) {
+        int[] count = {0};
+        new TreeWalker() {
+            @Override
+            public Void visit(StmReturn stmReturn) {
+                count[0]++;
+                return null;
+            }
+        }.walk(stms);
+        return count[0];
+    }
+
+    /**
+     * The names of all the variables read or written in a fragment.
+     */
+    private static Set<String> varNames(List<? extends ast.AST> nodes) {
+        Set<String> names = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpVar expVar) {
+                names.add(expVar.varName);
+                return null;
+            }
+
+            @Override
+            public Void visit(ExpArrayAccess expArrayAccess) {
+                names.add(expArrayAccess.id);
+                return super.visit(expArrayAccess);
+            }
+
+            @Override
+            public Void visit(StmAssign stmAssign) {
+                names.add(stmAssign.varName);
+                return super.visit(stmAssign);
+            }
+
+            @Override
+            public Void visit(StmArrayAssign stmArrayAssign) {
+                names.add(stmArrayAssign.id);
+                return super.visit(stmArrayAssign);
+            }
+        }.walk(nodes);
+        return names;
+    }
+
+    private static int uses(Exp exp, String name) {
+        int[] count = {0};
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpVar expVar) {
+                if (expVar.varName.equals(name)) count[0]++;
+                return null;
+            }
+
+            @Override
+            public Void visit(ExpArrayAccess expArrayAccess) {
+                if (expArrayAccess.id.equals(name)) count[0]++;
+                return super.visit(expArrayAccess);
+            }
+        }.walk(exp);
+        return count[0];
+    }
+
+    /**
+     * Can the globals used by a method body be referred to by name at the
+     * call site, or are some of them hidden by parameters or locals there?
+     */
+    private boolean globalsVisible(MethodDecl callee) {
+        Set<String> own = new HashSet<>();
+        for (VarDecl decl : callee.formals) own.add(decl.name);
+        for (VarDecl decl : callee.locals) own.add(decl.name);
+        for (String name : varNames(callee.body)) {
+            if (!own.contains(name) && isFrameVar(name)) return false;
+        }
+        return true;
+    }
+
+    // inlining into expressions
+
+    @Override
+    public ast.AST visit(ExpMethodCall expMethodCall) {
+        List<Exp> arguments = rewriteExps(expMethodCall.arguments);
+        Exp inlined = substitute(expMethodCall.methodName, arguments);
+        return inlined != null ? inlined : new ExpMethodCall(expMethodCall.methodName, arguments);
+    }
+
+    /**
+     * The expression returned by a call, with the arguments substituted for
+     * the parameters, or null if the call cannot be inlined that way.
+     */
+    private Exp substitute(String methodName, List<Exp> arguments) {
+        if (!canSubstitute(methodName, arguments)) return null;
+        MethodDecl callee = candidates.get(methodName);
+        Map<String, Exp> actuals = new HashMap<>();
+        for (int i = 0; i < arguments.size(); ++i) {
+            actuals.put(callee.formals.get(i).name, arguments.get(i));
+        }
+        changed = true;
+        return new Substitution(actuals).rewrite(((StmReturn) callee.body.get(0)).exp);
+    }
+
+    private boolean canSubstitute(String methodName, List<Exp> arguments) {
+        MethodDecl callee = candidates.get(methodName);
+        if (callee == null || callee.body.size() != 1 || !(callee.body.get(0) instanceof StmReturn)) return false;
+        Exp result = ((StmReturn) callee.body.get(0)).exp;
+        if (result == null || Effects.hasCalls(result) || !globalsVisible(callee)) return false;
+        for (VarDecl local : callee.locals) {
+            if (uses(result, local.name) > 0) return false;
+        }
+        for (int i = 0; i < arguments.size(); ++i) {
+            Exp arg = arguments.get(i);
+            // each argument is evaluated exactly once before the call, so it
+            // must be safe to evaluate it more or fewer times, or later on
+            if (!Effects.isSafe(arg)) return false;
+            if (uses(result, callee.formals.get(i).name) > 1 && !(arg instanceof ExpVar || arg instanceof ExpInt)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // inlining into statements
+
+    /**
+     * The statements of an inlined call: the parameters are set from the
+     * arguments, the body is run, and then the given statement is built
+     * from the returned expression. Returns null if the call cannot be
+     * inlined, or is not a call.
+     */
+    private Stm inline(Exp exp, Function<Exp, Stm> then) {
+        if (!(exp instanceof ExpMethodCall)) return null;
+        ExpMethodCall call = (ExpMethodCall) exp;
+        // if the call can be replaced by an expression, that is done when
+        // the statement's expression is rewritten
+        if (canSubstitute(call.methodName, call.arguments)) return null;
+        return inline(call.methodName, call.arguments, then);
+    }
+
+    private Stm inline(String methodName, List<Exp> arguments, Function<Exp, Stm> then) {
+        MethodDecl callee = candidates.get(methodName);
+        if (callee == null || !globalsVisible(callee)) return null;
+        changed = true;
+
+        Map<String, Exp> renaming = new HashMap<>();
+        List<Stm> stms = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); ++i) {
+            VarDecl formal = callee.formals.get(i);
+            String temp = newTemp(formal.type);
+            stms.add(new StmAssign(temp, rewrite(arguments.get(i))));
+            renaming.put(formal.name, new ExpVar(temp));
+        }
+        for (VarDecl local : callee.locals) {
+            renaming.put(local.name, new ExpVar(newTemp(local.type)));
+        }
+
+        Substitution rename = new Substitution(renaming);
+        List<Stm> body = callee.body;
+        Exp result = null;
+        if (!body.isEmpty() && body.get(body.size() - 1) instanceof StmReturn) {
+            result = rename.rewrite(((StmReturn) body.get(body.size() - 1)).exp);
+            body = body.subList(0, body.size() - 1);
+        }
+        if (result == null && callee.isFunction) {
+            result = new ExpInt(0);
+        }
+        stms.addAll(rename.rewriteStms(body));
+        Stm last = then.apply(result);
+        if (last != null) stms.add(last);
+        return new StmBlock(stms);
+    }
+
+    @Override
+    public ast.AST visit(StmAssign stmAssign) {
+        Stm inlined = inline(stmAssign.exp, result -> new StmAssign(stmAssign.varName, result));
+        return inlined != null ? inlined : super.visit(stmAssign);
+    }
+
+    @Override
+    public ast.AST visit(StmReturn stmReturn) {
+        Stm inlined = inline(stmReturn.exp, StmReturn::new);
+        return inlined != null ? inlined : super.visit(stmReturn);
+    }
+
+    @Override
+    public ast.AST visit(StmPrint stmPrint) {
+        Stm inlined = inline(stmPrint.exp, StmPrint::new);
+        return inlined != null ? inlined : super.visit(stmPrint);
+    }
+
+    @Override
+    public ast.AST visit(StmPrintln stmPrintln) {
+        Stm inlined = inline(stmPrintln.exp, StmPrintln::new);
+        return inlined != null ? inlined : super.visit(stmPrintln);
+    }
+
+    @Override
+    public ast.AST visit(StmPrintChar stmPrintChar) {
+        Stm inlined = inline(stmPrintChar.exp, StmPrintChar::new);
+        return inlined != null ? inlined : super.visit(stmPrintChar);
+    }
+
+    @Override
+    public ast.AST visit(StmIf stmIf) {
+        Stm inlined = inline(stmIf.exp,
+                result -> new StmIf(result, rewrite(stmIf.trueBranch), rewrite(stmIf.falseBranch)));
+        return inlined != null ? inlined : super.visit(stmIf);
+    }
+
+    @Override
+    public ast.AST visit(StmMethodCall stmMethodCall) {
+        MethodDecl callee = candidates.get(stmMethodCall.id);
+        Stm inlined = inline(stmMethodCall.id, stmMethodCall.actuals,
+                // the result is discarded, but evaluating it may still halt
+                result -> result == null || Effects.isSafe(result) ? null
+                        : new StmAssign(newTemp(callee.returnType), result));
+        return inlined != null ? inlined : super.visit(stmMethodCall);
+    }
+
+    /**
+     * Replaces variables by expressions. Variables which are assigned to may
+     * only be replaced by other variables.
+     */
+    private static class Substitution extends TreeRewriter {
+
+        private final Map<String, Exp> map;
+
+        Substitution(Map<String, Exp> map) {
+            this.map = map;
+        }
+
+        private String rename(String name) {
+            Exp exp = map.get(name);
+            return exp == null ? name : ((ExpVar) exp).varName;
+        }
+
+        @Override
+        public ast.AST visit(ExpVar expVar) {
+            return map.getOrDefault(expVar.varName, expVar);
+        }
+
+        @Override
+        public ast.AST visit(ExpArrayAccess expArrayAccess) {
+            return new ExpArrayAccess(rename(expArrayAccess.id), rewriteExps(expArrayAccess.indexers));
+        }
+
+        @Override
+        public ast.AST visit(StmAssign stmAssign) {
+            return new StmAssign(rename(stmAssign.varName), rewrite(stmAssign.exp));
+        }
+
+        @Override
+        public ast.AST visit(StmArrayAssign stmArrayAssign) {
+            return new StmArrayAssign(rename(stmArrayAssign.id), rewriteExps(stmArrayAssign.indexers),
+                    rewrite(stmArrayAssign.value));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeRewriter;
+import ast.util.TreeWalker;
+
+import java.util.*;
+
+/**
+ * An AST-to-AST pass which moves loop-invariant computations out of while
+ * loops. An expression is invariant if none of the variables it reads is
+ * assigned in the loop, it makes no calls and it creates no arrays; array
+ * elements are only invariant if the loop assigns no array elements and
+ * makes no calls. Each largest invariant subexpression (other than a
+ * variable or constant) is evaluated once into a fresh temporary before
+ * the loop, and the loop uses the temporary instead.
+ * Since the hoisted code runs even if the loop body never does, only
+ * expressions which cannot halt the program (see Effects.isSafe) are moved
+ * out of the body. The parts of the condition which are evaluated on every
+ * test, if it makes no calls, are evaluated before the body anyway and may
+ * be moved whatever they contain.
+ * Inner loops are processed first.
+ */
+public class LoopInvariantMotion extends ScopedRewriter {
+
+    @Override
+    public AST visit(StmWhile stmWhile) {
+        Stm body = rewrite(stmWhile.body);
+        Loop loop = new Loop(stmWhile.exp, body);
+
+        List<Stm> preheader = new ArrayList<>();
+        Hoister hoister = new Hoister(loop, preheader);
+        hoister.allowTraps = !Effects.hasCalls(stmWhile.exp);
+        // an invariant condition is only tested once or loops forever, so
+        // there is nothing to gain from moving all of it
+        Exp exp = (Exp) stmWhile.exp.accept(hoister);
+        hoister.allowTraps = false;
+        body = hoister.rewrite(body);
+
+        if (preheader.isEmpty()) {
+            return new StmWhile(exp, body);
+        }
+        preheader.add(new StmWhile(exp, body));
+        return new StmBlock(preheader);
+    }
+
+    /**
+     * What a loop may change on each iteration.
+     */
+    private class Loop {
+
+        final Set<String> assigned;
+        final boolean calls;
+        final boolean arrayStores;
+
+        Loop(Exp exp, Stm body) {
+            assigned = Effects.assignedVars(body);
+            calls = Effects.hasCalls(exp) || Effects.hasCalls(body);
+            arrayStores = Effects.hasArrayStores(body);
+        }
+
+        boolean changes(String varName) {
+            // a call may assign any global
+            return assigned.contains(varName) || (calls && !isFrameVar(varName));
+        }
+
+        boolean isInvariant(Exp exp) {
+            boolean[] variant = {false};
+            new TreeWalker() {
+                @Override
+                public Void visit(ExpVar expVar) {
+                    if (changes(expVar.varName)) variant[0] = true;
+                    return null;
+                }
+
+                @Override
+                public Void visit(ExpArrayAccess expArrayAccess) {
+                    if (changes(expArrayAccess.id) || calls || arrayStores) variant[0] = true;
+                    return super.visit(expArrayAccess);
+                }
+
+                @Override
+                public Void visit(ExpMethodCall expMethodCall) {
+                    variant[0] = true;
+                    return null;
+                }
+
+                @Override
+                public Void visit(ExpNewArray expNewArray) {
+                    variant[0] = true;
+                    return null;
+                }
+            }.walk(exp);
+            return !variant[0];
+        }
+    }
+
+    /**
+     * Replaces the largest invariant subexpressions by temporaries, adding
+     * their initialisation to the preheader.
+     */
+    private class Hoister extends TreeRewriter {
+
+        private final Loop loop;
+        private final List<Stm> preheader;
+
+        /** can the expression being rewritten be moved even if it might halt? */
+        boolean allowTraps;
+
+        Hoister(Loop loop, List<Stm> preheader) {
+            this.loop = loop;
+            this.preheader = preheader;
+        }
+
+        @Override
+        public Exp rewrite(Exp exp) {
+            if (exp == null || exp instanceof ExpVar || exp instanceof ExpInt) {
+                return exp;
+            }
+            if ((allowTraps || Effects.isSafe(exp)) && loop.isInvariant(exp)) {
+                String temp = newTemp(new TypeInt());
+                preheader.add(new StmAssign(temp, exp));
+                return new ExpVar(temp);
+            }
+            return super.rewrite(exp);
+        }
+
+        // the right operand of a short-cut operator is not always evaluated
+
+        @Override
+        public AST visit(ExpAnd expAnd) {
+            Exp left = rewrite(expAnd.left);
+            boolean saved = allowTraps;
+            allowTraps = false;
+            Exp right = rewrite(expAnd.right);
+            allowTraps = saved;
+            return new ExpAnd(left, right);
+        }
+
+        @Override
+        public AST visit(ExpOr expOr) {
+            Exp left = rewrite(expOr.left);
+            boolean saved = allowTraps;
+            allowTraps = false;
+            Exp right = rewrite(expOr.right);
+            allowTraps = saved;
+            return new ExpOr(left, right);
+        }
+    }
+}
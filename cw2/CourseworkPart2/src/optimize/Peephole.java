@@ -0,0 +1,190 @@
+package optimize;
+
+import ir.Instruction;
+import stackmachine.machine.OpCode;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * A peephole optimizer for emitted SSM code.
+ * A window slides over the instruction stream and each rule in the rule table
+ * is tried against the instructions at the end of the window. When a rule
+ * matches, its replacement is pushed back onto the input so that the result
+ * can take part in further matches (for example, folding a chain of constant
+ * arithmetic down to a single push).
+ * The code is taken as the instructions and labels of the instruction
+ * buffer, without comments or the data section (see
+ * InstructionBuffer.instructions).
+ */
+public class Peephole implements UnaryOperator<List<Instruction>> {
+
+    /**
+     * A single rewrite rule.
+     */
+    public interface Rule {
+
+        /**
+         * The number of instructions (or labels) this rule looks at.
+         */
+        int size();
+
+        /**
+         * Try to rewrite a window of instructions.
+         * @param window exactly size() instructions
+         * @return the replacement instructions, or null if the rule does not apply
+         */
+        List<Instruction> rewrite(List<Instruction> window);
+    }
+
+    /**
+     * The default rule table.
+     */
+    public static final List<Rule> DEFAULT_RULES = List.of(
+            // constant arithmetic: push a / push b / op  ->  push (a op b)
+            rule(3, w -> {
+                Integer a = pushed(w.get(0)), b = pushed(w.get(1));
+                if (a == null || b == null) return null;
+                Integer r = fold(w.get(2), a, b);
+                return r == null ? null : List.of(push(r));
+            }),
+            // push a / add / push b / add  ->  push (a + b) / add
+            rule(4, w -> {
+                Integer a = pushed(w.get(0)), b = pushed(w.get(2));
+                if (a == null || b == null || !is(w.get(1), OpCode.ADD) || !is(w.get(3), OpCode.ADD)) return null;
+                return List.of(push(a + b), w.get(1));
+            }),
+            // identities: x + 0, x - 0, x * 1, x / 1
+            rule(2, w -> {
+                Integer k = pushed(w.get(0));
+                if (k == null) return null;
+                Instruction op = w.get(1);
+                if (k == 0 && (is(op, OpCode.ADD) || is(op, OpCode.SUB))) return List.of();
+                if (k == 1 && (is(op, OpCode.MUL) || is(op, OpCode.DIV))) return List.of();
+                return null;
+            }),
+            // tests of a constant
+            rule(2, w -> {
+                Integer k = pushed(w.get(0));
+                if (k == null) return null;
+                if (is(w.get(1), OpCode.TEST_Z)) return List.of(push(k == 0 ? 1 : 0));
+                if (is(w.get(1), OpCode.TEST_N)) return List.of(push(k < 0 ? 1 : 0));
+                return null;
+            }),
+            // conditional jump on a constant
+            rule(2, w -> {
+                Integer k = pushed(w.get(0));
+                if (k == null || w.get(1).opcode != OpCode.JUMPI_Z) return null;
+                return k == 0 ? List.of(w.get(1).withOpcode(OpCode.JUMPI)) : List.of();
+            }),
+            // values which are pushed and immediately discarded
+            rule(2, w -> {
+                if (!is(w.get(1), OpCode.POP)) return null;
+                if (is(w.get(0), OpCode.DUP) || pushed(w.get(0)) != null) return List.of();
+                return null;
+            }),
+            // swap / swap
+            rule(2, w -> is(w.get(0), OpCode.SWAP) && is(w.get(1), OpCode.SWAP) ? List.of() : null),
+            // a double negation only normalizes to 0/1, which neither another
+            // test_z nor a conditional jump needs
+            rule(3, w -> {
+                if (!is(w.get(0), OpCode.TEST_Z) || !is(w.get(1), OpCode.TEST_Z)) return null;
+                if (is(w.get(2), OpCode.TEST_Z) || w.get(2).opcode == OpCode.JUMPI_Z) return List.of(w.get(2));
+                return null;
+            }),
+            // jump to the very next instruction
+            rule(2, w -> {
+                if (w.get(0).opcode != OpCode.JUMPI || !w.get(1).isLabel()) return null;
+                return w.get(0).label == w.get(1).label ? List.of(w.get(1)) : null;
+            }),
+            // unreachable code after an unconditional transfer of control
+            rule(2, w -> {
+                OpCode op = w.get(0).opcode;
+                if (!(op == OpCode.JUMPI || op == OpCode.HALT || op == OpCode.RET)) return null;
+                return w.get(1).isLabel() ? null : List.of(w.get(0));
+            })
+    );
+
+    private final List<Rule> rules;
+
+    private final int maxRuleSize;
+
+    /**
+     * Create a peephole optimizer which uses the default rule table.
+     */
+    public Peephole() {
+        this(DEFAULT_RULES);
+    }
+
+    /**
+     * Create a peephole optimizer with a custom rule table.
+     * @param rules the rules, in order of priority
+     */
+    public Peephole(List<Rule> rules) {
+        this.rules = List.copyOf(rules);
+        int max = 0;
+        for (Rule r : rules) max = Math.max(max, r.size());
+        this.maxRuleSize = max;
+    }
+
+    @Override
+    public List<Instruction> apply(List<Instruction> code) {
+        Deque<Instruction> in = new ArrayDeque<>(code);
+        List<Instruction> out = new ArrayList<>(code.size());
+        while (!in.isEmpty()) {
+            out.add(in.removeFirst());
+            for (Rule r : rules) {
+                int n = r.size();
+                if (out.size() < n) continue;
+                List<Instruction> window = out.subList(out.size() - n, out.size());
+                List<Instruction> replacement = r.rewrite(window);
+                if (replacement != null) {
+                    window.clear();
+                    for (int i = replacement.size() - 1; i >= 0; --i) {
+                        in.addFirst(replacement.get(i));
+                    }
+                    // back up so that the replacement is matched in context
+                    for (int i = Math.min(out.size(), maxRuleSize - 1); i > 0; --i) {
+                        in.addFirst(out.remove(out.size() - 1));
+                    }
+                    break;
+                }
+            }
+        }
+        return out;
+    }
+
+    private static Rule rule(int size, java.util.function.Function<List<Instruction>, List<Instruction>> f) {
+        return new Rule() {
+            public int size() { return size; }
+            public List<Instruction> rewrite(List<Instruction> window) { return f.apply(window); }
+        };
+    }
+
+    /**
+     * Is an instruction the given one, with no operand?
+     */
+    private static boolean is(Instruction instruction, OpCode opcode) {
+        return instruction.opcode == opcode && !instruction.hasNumberOperand() && !instruction.hasLabelOperand();
+    }
+
+    private static Instruction push(int k) {
+        return new Instruction(OpCode.PUSH, k);
+    }
+
+    /**
+     * The integer pushed by a "push n" instruction, or null if it is anything
+     * else (including a push of a label).
+     */
+    private static Integer pushed(Instruction instruction) {
+        return instruction.opcode == OpCode.PUSH && instruction.hasNumberOperand() ? instruction.number : null;
+    }
+
+    private static Integer fold(Instruction op, int a, int b) {
+        if (is(op, OpCode.ADD)) return a + b;
+        if (is(op, OpCode.SUB)) return a - b;
+        if (is(op, OpCode.MUL)) return a * b;
+        if (is(op, OpCode.DIV)) return b == 0 || (a == Integer.MIN_VALUE && b == -1) ? null : a / b;
+        return null;
+    }
+}
@@ -0,0 +1,169 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeRewriter;
+import ast.util.TreeWalker;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * A TreeRewriter for passes which need to know which method they are in and
+ * which may introduce temporary variables. Temporaries are added as extra
+ * locals of the method being rewritten, or as extra globals when rewriting
+ * the main body. Their names start with "$$", so they cannot clash with
+ * LPL identifiers.
+ */
+public abstract class ScopedRewriter extends TreeRewriter implements UnaryOperator<Program> {
+
+    /** the program being rewritten */
+    protected Program program;
+
+    /** the method being rewritten, or null in the main body */
+    protected MethodDecl method;
+
+    private Set<String> frameNames;
+    private Map<String, Type> types;
+    private Set<String> usedNames;
+    private List<VarDecl> newGlobals;
+    private List<VarDecl> newLocals;
+    private int tempCount;
+
+    @Override
+    public Program apply(Program program) {
+        this.program = program;
+        usedNames = declaredNames(program);
+        newGlobals = new ArrayList<>();
+
+        method = null;
+        frameNames = new HashSet<>();
+        types = new HashMap<>();
+        for (VarDecl decl : program.varDecls) types.put(decl.name, decl.type);
+        Map<String, Type> globalTypes = types;
+        List<Stm> body = rewriteStms(program.body);
+
+        List<MethodDecl> methods = new ArrayList<>();
+        for (MethodDecl m : program.methods) {
+            method = m;
+            frameNames = new HashSet<>();
+            types = new HashMap<>(globalTypes);
+            for (VarDecl decl : m.formals) {
+                frameNames.add(decl.name);
+                types.put(decl.name, decl.type);
+            }
+            for (VarDecl decl : m.locals) {
+                frameNames.add(decl.name);
+                types.put(decl.name, decl.type);
+            }
+            newLocals = new ArrayList<>();
+            List<Stm> methodBody = rewriteStms(m.body);
+            List<VarDecl> locals = new ArrayList<>(m.locals);
+            locals.addAll(newLocals);
+            methods.add(new MethodDecl(m.id, m.returnType, m.formals, locals, methodBody));
+        }
+        method = null;
+
+        List<VarDecl> varDecls = new ArrayList<>(program.varDecls);
+        varDecls.addAll(newGlobals);
+        return new Program(varDecls, body, methods);
+    }
+
+    /**
+     * Is the name a parameter or local of the method being rewritten (rather
+     * than a global)?
+     */
+    protected boolean isFrameVar(String name) {
+        return frameNames.contains(name);
+    }
+
+    /**
+     * The declared type of a variable in scope.
+     */
+    protected Type declaredType(String name) {
+        return types.get(name);
+    }
+
+    /**
+     * Allocate a fresh temporary variable in the current scope.
+     * @param type the type of the temporary
+     * @return its name
+     */
+    protected String newTemp(Type type) {
+        String name;
+        do {
+            name = "$$t" + tempCount++;
+        } while (usedNames.contains(name));
+        usedNames.add(name);
+        types.put(name, type);
+        VarDecl decl = new VarDecl(type, name);
+        if (method == null) {
+            newGlobals.add(decl);
+        } else {
+            frameNames.add(name);
+            newLocals.add(decl);
+        }
+        return name;
+    }
+
+    /**
+     * Estimate the number of instructions needed to load a temporary, or to
+     * address it for a store: a temporary is a local in a method but a
+     * global in the main body.
+     */
+    protected int tempCost() {
+        return method == null ? 1 : 4;
+    }
+
+    /**
+     * Estimate the number of instructions in the code generated for an
+     * expression, for comparing the costs of alternatives.
+     */
+    protected int cost(Exp exp) {
+        if (exp instanceof ExpInt) {
+            return 1;
+        } else if (exp instanceof ExpVar) {
+            return isFrameVar(((ExpVar) exp).varName) ? 4 : 1;
+        } else if (exp instanceof ExpPlus) {
+            return cost(((ExpPlus) exp).left) + cost(((ExpPlus) exp).right) + 1;
+        } else if (exp instanceof ExpMinus) {
+            return cost(((ExpMinus) exp).left) + cost(((ExpMinus) exp).right) + 1;
+        } else if (exp instanceof ExpTimes) {
+            return cost(((ExpTimes) exp).left) + cost(((ExpTimes) exp).right) + 1;
+        } else if (exp instanceof ExpDiv) {
+            return cost(((ExpDiv) exp).left) + cost(((ExpDiv) exp).right) + 1;
+        } else if (exp instanceof ExpLessThan) {
+            return cost(((ExpLessThan) exp).left) + cost(((ExpLessThan) exp).right) + 2;
+        } else if (exp instanceof ExpLessThanEqual) {
+            return cost(((ExpLessThanEqual) exp).left) + cost(((ExpLessThanEqual) exp).right) + 4;
+        } else if (exp instanceof ExpEqual) {
+            return cost(((ExpEqual) exp).left) + cost(((ExpEqual) exp).right) + 2;
+        } else if (exp instanceof ExpNot) {
+            return cost(((ExpNot) exp).e) + 1;
+        } else if (exp instanceof ExpAnd) {
+            return cost(((ExpAnd) exp).left) + cost(((ExpAnd) exp).right) + 5;
+        } else if (exp instanceof ExpOr) {
+            return cost(((ExpOr) exp).left) + cost(((ExpOr) exp).right) + 5;
+        } else if (exp instanceof ExpArrayAccess) {
+            ExpArrayAccess access = (ExpArrayAccess) exp;
+            int cost = isFrameVar(access.id) ? 4 : 1;
+            for (Exp indexer : access.indexers) cost += cost(indexer) + 1;
+            return cost + 1;
+        } else if (exp instanceof ExpArrayLength) {
+            return cost(((ExpArrayLength) exp).array) + 1;
+        } else {
+            return 0;
+        }
+    }
+
+    private static Set<String> declaredNames(Program program) {
+        Set<String> names = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            public Void visit(VarDecl varDecl) {
+                names.add(varDecl.name);
+                return null;
+            }
+        }.walk(program);
+        return names;
+    }
+}
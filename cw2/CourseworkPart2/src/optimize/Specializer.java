@@ -0,0 +1,146 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeRewriter;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * An AST-to-AST pass which specializes methods for the constant arguments
+ * they are called with.
+ * For each distinct combination of integer literal arguments a method is
+ * called with, a clone of the method is made without those parameters:
+ * they become locals of the clone, assigned their constant values at the
+ * start of its body, so that the later passes can fold them in. The calls
+ * are rewritten to call the clone with the remaining arguments, in the same
+ * order. The bodies of clones are rewritten too, so a recursive call which
+ * passes the same constants calls the clone itself.
+ * At most a fixed number of clones are made; calls with constant arguments
+ * found after that call the general method. Methods which are no longer
+ * called are left for DeadCodeEliminator to remove.
+ */
+public class Specializer extends TreeRewriter implements UnaryOperator<Program> {
+
+    /**
+     * The number of clones made if no other budget is given.
+     */
+    public static final int DEFAULT_BUDGET = 8;
+
+    private final int budget;
+
+    /** the methods of the program, by name */
+    private Map<String, MethodDecl> methods;
+
+    /** the names of the clones made, by call signature */
+    private Map<String, String> clones;
+
+    /** the clones whose bodies have not been rewritten yet */
+    private Deque<MethodDecl> pending;
+
+    public Specializer() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget the largest number of clones to make
+     */
+    public Specializer(int budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public Program apply(Program program) {
+        methods = new HashMap<>();
+        for (MethodDecl m : program.methods) methods.put(m.id, m);
+        clones = new HashMap<>();
+        pending = new ArrayDeque<>();
+
+        List<Stm> body = rewriteStms(program.body);
+        List<MethodDecl> result = new ArrayList<>();
+        for (MethodDecl m : program.methods) result.add(rewriteBody(m));
+        while (!pending.isEmpty()) result.add(rewriteBody(pending.removeFirst()));
+        return new Program(program.varDecls, body, result);
+    }
+
+    private MethodDecl rewriteBody(MethodDecl m) {
+        return new MethodDecl(m.id, m.returnType, m.formals, m.locals, rewriteStms(m.body));
+    }
+
+    @Override
+    public AST visit(ExpMethodCall expMethodCall) {
+        List<Exp> arguments = rewriteExps(expMethodCall.arguments);
+        String clone = specialize(expMethodCall.methodName, arguments);
+        if (clone == null) return new ExpMethodCall(expMethodCall.methodName, arguments);
+        return new ExpMethodCall(clone, remaining(methods.get(expMethodCall.methodName), arguments));
+    }
+
+    @Override
+    public AST visit(StmMethodCall stmMethodCall) {
+        List<Exp> arguments = rewriteExps(stmMethodCall.actuals);
+        String clone = specialize(stmMethodCall.id, arguments);
+        if (clone == null) return new StmMethodCall(stmMethodCall.id, arguments);
+        return new StmMethodCall(clone, remaining(methods.get(stmMethodCall.id), arguments));
+    }
+
+    /**
+     * The name of the clone of a method specialized for the constant
+     * arguments of a call, made if necessary.
+     * @return the name, or null if the call is not specialized
+     */
+    private String specialize(String methodName, List<Exp> arguments) {
+        MethodDecl method = methods.get(methodName);
+        if (method == null || method.formals.size() != arguments.size()) return null;
+        StringBuilder signature = new StringBuilder(methodName).append('(');
+        boolean hasConstants = false;
+        for (int i = 0; i < arguments.size(); i++) {
+            if (isConstant(method, arguments, i)) {
+                signature.append(((ExpInt) arguments.get(i)).value);
+                hasConstants = true;
+            } else {
+                signature.append('_');
+            }
+            signature.append(',');
+        }
+        if (!hasConstants) return null;
+
+        String key = signature.toString();
+        String clone = clones.get(key);
+        if (clone == null) {
+            if (clones.size() >= budget) return null;
+            clone = "$$" + methodName + "_" + clones.size();
+            clones.put(key, clone);
+            pending.add(cloneOf(method, clone, arguments));
+        }
+        return clone;
+    }
+
+    private static boolean isConstant(MethodDecl method, List<Exp> arguments, int i) {
+        return arguments.get(i) instanceof ExpInt && method.formals.get(i).type instanceof TypeInt;
+    }
+
+    private MethodDecl cloneOf(MethodDecl method, String name, List<Exp> arguments) {
+        List<VarDecl> formals = new ArrayList<>();
+        List<VarDecl> locals = new ArrayList<>(method.locals);
+        List<Stm> body = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); i++) {
+            VarDecl formal = method.formals.get(i);
+            if (isConstant(method, arguments, i)) {
+                locals.add(formal);
+                body.add(new StmAssign(formal.name, arguments.get(i)));
+            } else {
+                formals.add(formal);
+            }
+        }
+        body.addAll(method.body);
+        return new MethodDecl(name, method.returnType, formals, locals, body);
+    }
+
+    private static List<Exp> remaining(MethodDecl method, List<Exp> arguments) {
+        List<Exp> remaining = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); i++) {
+            if (!isConstant(method, arguments, i)) remaining.add(arguments.get(i));
+        }
+        return remaining;
+    }
+}
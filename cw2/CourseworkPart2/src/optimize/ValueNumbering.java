@@ -0,0 +1,388 @@
+package optimize;
+
+import ast.*;
+import ast.util.TreeRewriter;
+import ast.util.TreeWalker;
+import ast.util.VisitorAdapter;
+
+import java.util.*;
+
+/**
+ * An AST-to-AST pass which finds expressions computed more than once and
+ * computes them once, into a fresh temporary.
+ * A value computed by a statement is available to the statements after it
+ * in the same block, including the ones nested inside them (the parts of
+ * the program it dominates), so repeats are found across branches and
+ * loops as well as within straight-line code.
+ * Two expressions have the same value number if they are built the same
+ * way from the same variables and constants, treating +, * and == as
+ * commutative. The partial index chains of array accesses and array
+ * assignments (a[i] in a[i][j]) are numbered too, so that a row is only
+ * fetched once.
+ * A value stays available until a statement might assign one of the
+ * variables it reads; values which read globals or array elements are also
+ * lost at calls, and values which read array elements at array assignments.
+ * Since the temporary is computed before the statement where the value
+ * first occurs, an expression which might halt is only reused if that
+ * statement makes no calls and evaluates it unconditionally.
+ * A value is only replaced if the estimated number of instructions saved is
+ * more than the cost of storing and loading the temporary.
+ */
+public class ValueNumbering extends ScopedRewriter {
+
+    @Override
+    public List<Stm> rewriteStms(List<Stm> stms) {
+        List<Stm> result = new ArrayList<>(super.rewriteStms(stms));
+        int k = 0;
+        while (k < result.size()) {
+            if (!isSimple(result.get(k)) || !numberFirst(result, k)) k++;
+        }
+        return result;
+    }
+
+    /**
+     * Is the statement free of control flow (other than calls)?
+     */
+    private static boolean isSimple(Stm stm) {
+        return stm instanceof StmAssign || stm instanceof StmArrayAssign || stm instanceof StmMethodCall
+                || stm instanceof StmPrint || stm instanceof StmPrintln || stm instanceof StmPrintChar
+                || stm instanceof StmNewline || stm instanceof StmReturn;
+    }
+
+    /**
+     * Find the first value in statement k worth keeping in a temporary and,
+     * if there is one, insert the temporary's assignment before statement k
+     * and use it in place of the value up to the end of its lifetime.
+     * @return whether a temporary was introduced
+     */
+    private boolean numberFirst(List<Stm> stms, int k) {
+        Stm first = stms.get(k);
+        Occurrences inFirst = new Occurrences();
+        inFirst.walk(first);
+
+        Set<String> tried = new HashSet<>();
+        for (Occurrence occurrence : inFirst.all) {
+            Value value = new Value(occurrence.exp);
+            if (value.key == null || !tried.add(value.key)) continue;
+            if (!value.isSafe && (Effects.hasCalls(first) || !inFirst.isUnconditional(value.key))) continue;
+
+            int end = k;
+            int uses = 0;
+            for (int j = k; j < stms.size(); j++) {
+                Stm stm = stms.get(j);
+                if (value.readsMemory() && Effects.hasCalls(stm)) break;
+                // a simple statement evaluates all its expressions before it
+                // assigns anything, but a nested statement might not
+                boolean killed = value.isKilledBy(stm);
+                if (killed && !isSimple(stm)) break;
+                uses += count(stm, value.key);
+                end = j + 1;
+                if (killed) break;
+            }
+            if (uses < 2 || end == k || !isProfitable(value, uses)) continue;
+
+            String temp = newTemp(value.type);
+            Replacer replacer = new Replacer(value.key, temp);
+            for (int j = k; j < end; j++) {
+                stms.set(j, replacer.rewrite(stms.get(j)));
+            }
+            stms.add(k, new StmAssign(temp, value.exp));
+            return true;
+        }
+        return false;
+    }
+
+    private static int count(Stm stm, String key) {
+        Occurrences occurrences = new Occurrences();
+        occurrences.walk(stm);
+        int n = 0;
+        for (Occurrence occurrence : occurrences.all) {
+            if (key.equals(keyOf(occurrence.exp))) n++;
+        }
+        return n;
+    }
+
+    private boolean isProfitable(Value value, int uses) {
+        int cost = cost(value.exp);
+        return uses * cost > cost + tempCost() + uses * tempCost();
+    }
+
+    // value numbers
+
+    /**
+     * The value number of an expression, as a string, or null if it makes
+     * calls or creates arrays.
+     */
+    private static String keyOf(Exp exp) {
+        return exp.accept(KEYS);
+    }
+
+    private static String commutative(String op, String a, String b) {
+        if (a == null || b == null) return null;
+        return a.compareTo(b) <= 0 ? "(" + op + " " + a + " " + b + ")" : "(" + op + " " + b + " " + a + ")";
+    }
+
+    private static String binary(String op, String a, String b) {
+        return a == null || b == null ? null : "(" + op + " " + a + " " + b + ")";
+    }
+
+    private static final VisitorAdapter<String> KEYS = new VisitorAdapter<String>() {
+        @Override
+        public String visit(ExpInt expInt) {
+            return Integer.toString(expInt.value);
+        }
+
+        @Override
+        public String visit(ExpVar expVar) {
+            return expVar.varName;
+        }
+
+        @Override
+        public String visit(ExpPlus expPlus) {
+            return commutative("+", keyOf(expPlus.left), keyOf(expPlus.right));
+        }
+
+        @Override
+        public String visit(ExpTimes expTimes) {
+            return commutative("*", keyOf(expTimes.left), keyOf(expTimes.right));
+        }
+
+        @Override
+        public String visit(ExpEqual expEqual) {
+            return commutative("==", keyOf(expEqual.left), keyOf(expEqual.right));
+        }
+
+        @Override
+        public String visit(ExpMinus expMinus) {
+            return binary("-", keyOf(expMinus.left), keyOf(expMinus.right));
+        }
+
+        @Override
+        public String visit(ExpDiv expDiv) {
+            return binary("/", keyOf(expDiv.left), keyOf(expDiv.right));
+        }
+
+        @Override
+        public String visit(ExpLessThan expLessThan) {
+            return binary("<", keyOf(expLessThan.left), keyOf(expLessThan.right));
+        }
+
+        @Override
+        public String visit(ExpLessThanEqual expLessThanEqual) {
+            return binary("<=", keyOf(expLessThanEqual.left), keyOf(expLessThanEqual.right));
+        }
+
+        @Override
+        public String visit(ExpAnd expAnd) {
+            return binary("&&", keyOf(expAnd.left), keyOf(expAnd.right));
+        }
+
+        @Override
+        public String visit(ExpOr expOr) {
+            return binary("||", keyOf(expOr.left), keyOf(expOr.right));
+        }
+
+        @Override
+        public String visit(ExpNot expNot) {
+            String e = keyOf(expNot.e);
+            return e == null ? null : "(! " + e + ")";
+        }
+
+        @Override
+        public String visit(ExpArrayAccess expArrayAccess) {
+            StringBuilder sb = new StringBuilder("([] ").append(expArrayAccess.id);
+            for (Exp indexer : expArrayAccess.indexers) {
+                String index = keyOf(indexer);
+                if (index == null) return null;
+                sb.append(' ').append(index);
+            }
+            return sb.append(')').toString();
+        }
+
+        @Override
+        public String visit(ExpArrayLength expArrayLength) {
+            String array = keyOf(expArrayLength.array);
+            return array == null ? null : "(length " + array + ")";
+        }
+    };
+
+    /**
+     * A candidate for a temporary: a non-trivial expression with a value number.
+     */
+    private class Value {
+
+        final Exp exp;
+        final String key;
+        final Set<String> reads = new HashSet<>();
+        final boolean isSafe;
+        final Type type;
+        boolean readsArrays;
+
+        Value(Exp exp) {
+            this.exp = exp;
+            this.key = exp instanceof ExpVar || exp instanceof ExpInt ? null : keyOf(exp);
+            this.isSafe = Effects.isSafe(exp);
+            new TreeWalker() {
+                @Override
+                public Void visit(ExpVar expVar) {
+                    reads.add(expVar.varName);
+                    return null;
+                }
+
+                @Override
+                public Void visit(ExpArrayAccess expArrayAccess) {
+                    reads.add(expArrayAccess.id);
+                    readsArrays = true;
+                    return super.visit(expArrayAccess);
+                }
+            }.walk(exp);
+            this.type = typeOf(exp);
+        }
+
+        /**
+         * Might a call change the value?
+         */
+        boolean readsMemory() {
+            return readsArrays || reads.stream().anyMatch(name -> !isFrameVar(name));
+        }
+
+        /**
+         * Might the statement change the value?
+         */
+        boolean isKilledBy(Stm stm) {
+            return !Collections.disjoint(reads, Effects.assignedVars(stm))
+                    || (readsArrays && Effects.hasArrayStores(stm));
+        }
+
+        private Type typeOf(Exp exp) {
+            if (!(exp instanceof ExpArrayAccess)) return new TypeInt();
+            Type type = declaredType(((ExpArrayAccess) exp).id);
+            for (int i = 0; i < ((ExpArrayAccess) exp).indexers.size(); i++) {
+                if (!(type instanceof TypeArray)) return new TypeInt();
+                type = ((TypeArray) type).getElementType();
+            }
+            return type;
+        }
+    }
+
+    private static class Occurrence {
+        final Exp exp;
+        final boolean conditional;
+
+        Occurrence(Exp exp, boolean conditional) {
+            this.exp = exp;
+            this.conditional = conditional;
+        }
+    }
+
+    /**
+     * Lists the expressions evaluated by a statement, outermost first,
+     * including the partial index chains of array accesses and assignments.
+     */
+    private static class Occurrences extends TreeWalker {
+
+        final List<Occurrence> all = new ArrayList<>();
+        private boolean conditional;
+
+        boolean isUnconditional(String key) {
+            for (Occurrence occurrence : all) {
+                if (!occurrence.conditional && key.equals(keyOf(occurrence.exp))) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void walk(AST node) {
+            if (node instanceof Exp) all.add(new Occurrence((Exp) node, conditional));
+            super.walk(node);
+        }
+
+        private void addPrefixes(String id, List<Exp> indexers, int longest) {
+            for (int n = longest; n > 0; n--) {
+                all.add(new Occurrence(new ExpArrayAccess(id, indexers.subList(0, n)), conditional));
+            }
+        }
+
+        @Override
+        public Void visit(ExpArrayAccess expArrayAccess) {
+            addPrefixes(expArrayAccess.id, expArrayAccess.indexers, expArrayAccess.indexers.size() - 1);
+            return super.visit(expArrayAccess);
+        }
+
+        @Override
+        public Void visit(StmArrayAssign stmArrayAssign) {
+            addPrefixes(stmArrayAssign.id, stmArrayAssign.indexers, stmArrayAssign.indexers.size() - 1);
+            return super.visit(stmArrayAssign);
+        }
+
+        // the right operand of a short-cut operator is not always evaluated
+
+        @Override
+        public Void visit(ExpAnd expAnd) {
+            walk(expAnd.left);
+            boolean saved = conditional;
+            conditional = true;
+            walk(expAnd.right);
+            conditional = saved;
+            return null;
+        }
+
+        @Override
+        public Void visit(ExpOr expOr) {
+            walk(expOr.left);
+            boolean saved = conditional;
+            conditional = true;
+            walk(expOr.right);
+            conditional = saved;
+            return null;
+        }
+    }
+
+    /**
+     * Replaces every occurrence of a value, including partial index
+     * chains, by a temporary.
+     */
+    private static class Replacer extends TreeRewriter {
+
+        private final String key;
+        private final String temp;
+
+        Replacer(String key, String temp) {
+            this.key = key;
+            this.temp = temp;
+        }
+
+        @Override
+        public Exp rewrite(Exp exp) {
+            if (exp != null && key.equals(keyOf(exp))) return new ExpVar(temp);
+            return super.rewrite(exp);
+        }
+
+        /**
+         * The length of the partial index chain with the value, or 0.
+         */
+        private int prefix(String id, List<Exp> indexers) {
+            for (int n = indexers.size() - 1; n > 0; n--) {
+                if (key.equals(keyOf(new ExpArrayAccess(id, indexers.subList(0, n))))) return n;
+            }
+            return 0;
+        }
+
+        @Override
+        public AST visit(ExpArrayAccess expArrayAccess) {
+            List<Exp> indexers = expArrayAccess.indexers;
+            int n = prefix(expArrayAccess.id, indexers);
+            if (n == 0) return super.visit(expArrayAccess);
+            return new ExpArrayAccess(temp, rewriteExps(indexers.subList(n, indexers.size())));
+        }
+
+        @Override
+        public AST visit(StmArrayAssign stmArrayAssign) {
+            List<Exp> indexers = stmArrayAssign.indexers;
+            int n = prefix(stmArrayAssign.id, indexers);
+            if (n == 0) return super.visit(stmArrayAssign);
+            return new StmArrayAssign(temp, rewriteExps(indexers.subList(n, indexers.size())),
+                    rewrite(stmArrayAssign.value));
+        }
+    }
+}
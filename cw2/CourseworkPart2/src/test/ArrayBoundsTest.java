@@ -0,0 +1,81 @@
+package test;
+
+// Maven: org.junit.jupiter:junit-jupiter:5.9.3
+
+import ast.*;
+import ast.util.TreeWalker;
+import optimize.ArrayBounds;
+import optimize.DeadStoreEliminator;
+import org.junit.jupiter.api.Test;
+import parse.LPLParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests the range analysis of ArrayBounds on the counted loops in
+ * array-bounds.lpl, and the dead stores which it lets DeadStoreEliminator
+ * remove. Every array access in a method whose name starts with "safe" must
+ * be proven in bounds, and none in a method whose name starts with "unsafe".
+ * Each of these methods assigns an element to x, which is never read.
+ */
+class ArrayBoundsTest {
+
+    private static final String TEST_FILE_PATH = Utils.TEST_FILES_ROOT + "/optimizer/array-bounds.lpl";
+
+    @Test
+    void inBounds() throws IOException {
+        Program program = new LPLParser().parse(TEST_FILE_PATH);
+        Set<ExpArrayAccess> inBounds = ArrayBounds.inBounds(program);
+        for (MethodDecl method : program.methods) {
+            if (!isTested(method)) continue;
+            List<ExpArrayAccess> accesses = accesses(method);
+            assertFalse(accesses.isEmpty(), method.id);
+            for (ExpArrayAccess access : accesses) {
+                assertEquals(method.id.startsWith("safe"), inBounds.contains(access), method.id + ": " + access);
+            }
+        }
+    }
+
+    @Test
+    void deadStores() throws IOException {
+        Program program = new DeadStoreEliminator().apply(new LPLParser().parse(TEST_FILE_PATH));
+        for (MethodDecl method : program.methods) {
+            if (!isTested(method)) continue;
+            assertEquals(method.id.startsWith("unsafe"), assigns(method, "x"), method.id);
+        }
+    }
+
+    private static boolean isTested(MethodDecl method) {
+        return method.id.startsWith("safe") || method.id.startsWith("unsafe");
+    }
+
+    private static List<ExpArrayAccess> accesses(MethodDecl method) {
+        List<ExpArrayAccess> accesses = new ArrayList<>();
+        new TreeWalker() {
+            @Override
+            public Void visit(ExpArrayAccess expArrayAccess) {
+                accesses.add(expArrayAccess);
+                return super.visit(expArrayAccess);
+            }
+        }.walk(method.body);
+        return accesses;
+    }
+
+    private static boolean assigns(MethodDecl method, String varName) {
+        boolean[] found = {false};
+        new TreeWalker() {
+            @Override
+            public Void visit(StmAssign stmAssign) {
+                if (stmAssign.varName.equals(varName)) found[0] = true;
+                return super.visit(stmAssign);
+            }
+        }.walk(method.body);
+        return found[0];
+    }
+}
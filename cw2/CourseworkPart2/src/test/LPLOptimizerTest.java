@@ -0,0 +1,102 @@
+package test;
+
+// Maven: org.junit.jupiter:junit-jupiter:5.9.3
+
+import compile.Optimizer;
+import org.junit.jupiter.api.Timeout;
+import static org.junit.jupiter.api.Timeout.ThreadMode.SEPARATE_THREAD;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+/**
+ * Runs the compiler tests again with optimizations, which must not change
+ * the output of any test-program: at each level, and with each pass on its
+ * own, so that a pass is tested without the others hiding its mistakes.
+ */
+@Timeout(value = 1000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+class LPLOptimizerTest {
+
+    /** the flag of each pass which can be selected on its own */
+    private static final List<String> PASSES = List.of("-peephole", "-fold", "-dce", "-inline", "-licm",
+            "-cse", "-strength", "-cfg", "-dse", "-specialize");
+
+    @ParameterizedTest
+    @MethodSource("testFilePathsA")
+    void compileA1(String testFilePath) throws IOException {
+        Utils.doCompileTest(testFilePath, Optimizer.level(1));
+    }
+
+    @ParameterizedTest
+    @MethodSource("testFilePathsB")
+    void compileB1(String testFilePath) throws IOException {
+        Utils.doCompileTest(testFilePath, Optimizer.level(1));
+    }
+
+    @ParameterizedTest
+    @MethodSource("testFilePathsC")
+    void compileC1(String testFilePath) throws IOException {
+        Utils.doCompileTest(testFilePath, Optimizer.level(1));
+    }
+
+    @ParameterizedTest
+    @MethodSource("testFilePathsA")
+    void compileA2(String testFilePath) throws IOException {
+        Utils.doCompileTest(testFilePath, Optimizer.level(2));
+    }
+
+    @ParameterizedTest
+    @MethodSource("testFilePathsB")
+    void compileB2(String testFilePath) throws IOException {
+        Utils.doCompileTest(testFilePath, Optimizer.level(2));
+    }
+
+    @ParameterizedTest
+    @MethodSource("testFilePathsC")
+    void compileC2(String testFilePath) throws IOException {
+        Utils.doCompileTest(testFilePath, Optimizer.level(2));
+    }
+
+    @ParameterizedTest
+    @MethodSource("singlePassTests")
+    void compileSinglePass(String flag, String testFilePath) throws IOException {
+        Optimizer optimizer = new Optimizer();
+        optimizer.select(flag);
+        Utils.doCompileTest(testFilePath, optimizer);
+    }
+
+    @ParameterizedTest
+    @MethodSource("testFilePathsB")
+    void compileBMemoize(String testFilePath) throws IOException {
+        Optimizer optimizer = Optimizer.level(2);
+        optimizer.memoize = true;
+        Utils.doCompileTest(testFilePath, optimizer);
+    }
+
+    /**
+     * Each pass on its own, with each test-program in A and B.
+     */
+    private static Stream<Arguments> singlePassTests() {
+        return PASSES.stream().flatMap(flag -> Stream.concat(testFilePathsA(), testFilePathsB())
+                .map(testFilePath -> Arguments.of(flag, testFilePath)));
+    }
+
+    private static Stream<String> testFilePathsA() {
+        return test.Utils.testFilePaths(Utils.TEST_FILES_ROOT + "/compiler/A");
+    }
+
+    private static Stream<String> testFilePathsB() {
+        return test.Utils.testFilePaths(Utils.TEST_FILES_ROOT + "/compiler/B");
+    }
+
+    private static Stream<String> testFilePathsC() {
+        return test.Utils.testFilePaths(Utils.TEST_FILES_ROOT + "/compiler/C");
+    }
+
+}
@@ -0,0 +1,71 @@
+package test;
+
+// Maven: org.junit.jupiter:junit-jupiter:5.9.3
+
+import ast.Program;
+import compile.CompilationContext;
+import compile.Optimizer;
+import org.junit.jupiter.api.Timeout;
+import static org.junit.jupiter.api.Timeout.ThreadMode.SEPARATE_THREAD;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import parse.LPLParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles each test-program in A and B with its code streamed to the file
+ * one method at a time (-stream, see Optimizer.compileTo), and compares the
+ * result with the code of the whole program written at once.
+ * Without the CFG passes the code must be the same. The CFG passes see only
+ * one method at a time when the code is streamed, so they may keep code
+ * which they remove from the whole program; the streamed code must still
+ * give the expected output.
+ */
+@Timeout(value = 1000, unit = MILLISECONDS, threadMode = SEPARATE_THREAD)
+class StreamingTest {
+
+    @ParameterizedTest
+    @MethodSource("streamingTests")
+    void compileStreamed(int level, String testFilePath) throws IOException {
+        Optimizer optimizer = Optimizer.level(level);
+        Path buffered = Files.createTempFile("LPLtesting-", ".ssma");
+        Path streamed = Files.createTempFile("LPLtesting-", ".ssma");
+        try {
+            CompilationContext cx = optimizer.compile(optimizer.optimize(parse(testFilePath)));
+            optimizer.optimizeCode(cx);
+            cx.write(buffered);
+            optimizer.compileTo(optimizer.optimize(parse(testFilePath)), streamed);
+
+            if (!optimizer.cfg) {
+                assertEquals(Files.readString(buffered), Files.readString(streamed));
+            }
+            assertEquals(Utils.readExpected(testFilePath), Utils.execAssembly(streamed));
+        } finally {
+            Files.deleteIfExists(buffered);
+            Files.deleteIfExists(streamed);
+        }
+    }
+
+    private static Program parse(String testFilePath) throws IOException {
+        return new LPLParser().parse(testFilePath);
+    }
+
+    /**
+     * Each test-program in A and B, at each optimization level.
+     */
+    private static Stream<Arguments> streamingTests() {
+        return IntStream.rangeClosed(0, 2).boxed().flatMap(level -> Stream.concat(
+                        Utils.testFilePaths(Utils.TEST_FILES_ROOT + "/compiler/A"),
+                        Utils.testFilePaths(Utils.TEST_FILES_ROOT + "/compiler/B"))
+                .map(testFilePath -> Arguments.of(level, testFilePath)));
+    }
+}
@@ -2,16 +2,16 @@ package test;
 
 // Maven: org.junit.jupiter:junit-jupiter:5.9.3
 
-import ast.AST;
 import ast.Program;
+import compile.LPLRunner;
+import compile.Optimizer;
 import compile.StaticAnalysisException;
 import parse.LPLParser;
 import sbnf.ParseException;
-import stackmachine.assembler.Assembler;
-import stackmachine.machine.SSM;
 import staticanalysis.LPLTypeChecker;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -45,21 +45,37 @@ public class Utils {
      * @throws IOException
      */
     public static String exec(Program program) throws IOException {
-        File ssmaFile = File.createTempFile("LPLtesting-", ".ssma");
-        File ssmFile = File.createTempFile("LPLtesting-", ".ssm");
-        program.compile();
-        AST.write(ssmaFile.toPath());
-        Assembler ass = new Assembler();
-        boolean verbose = false;
-        String charsetName = null;
-        ass.assemble(ssmaFile.getAbsolutePath(), charsetName, ssmFile.getAbsolutePath(), verbose);
+        return exec(program, new Optimizer());
+    }
+
+    /**
+     * Optimize, compile, assemble and execute an LPL program.
+     *
+     * @param program the AST of the program to be executed
+     * @param optimizer the optimizations to apply
+     * @return the output of the program when executed
+     * @throws IOException
+     */
+    public static String exec(Program program, Optimizer optimizer) throws IOException {
+        try (ByteArrayOutputStream bout = new ByteArrayOutputStream(); PrintStream out = new PrintStream(bout);) {
+            LPLRunner.run(program, optimizer, out);
+            bout.close();
+            String string = new String(bout.toByteArray());
+            string = string.replaceAll("\\R", System.lineSeparator());
+            return string;
+        }
+    }
+
+    /**
+     * Assemble and execute a file of SSM assembly code.
+     *
+     * @param asmFile a path to the assembly code
+     * @return the output of the program when executed
+     * @throws IOException
+     */
+    public static String execAssembly(Path asmFile) throws IOException {
         try (ByteArrayOutputStream bout = new ByteArrayOutputStream(); PrintStream out = new PrintStream(bout);) {
-            boolean ranmem = true;
-            String ssmFilePath = ssmFile.getAbsolutePath();
-            SSM ssm = new SSM(ssmFilePath, new String[]{}, ranmem);
-            ssm.setOut(out);
-            ssm.run();
-            out.flush();
+            LPLRunner.run(asmFile, out);
             bout.close();
             String string = new String(bout.toByteArray());
             string = string.replaceAll("\\R", System.lineSeparator());
@@ -114,6 +130,17 @@ public class Utils {
         assertEquals(expected, exec(testFilePath));
     }
 
+    /**
+     * As doCompileTest, but compiling the test-program with optimizations.
+     * @param testFilePath path to the test-program
+     * @param optimizer the optimizations to apply
+     * @throws IOException
+     */
+    public static void doCompileTest(String testFilePath, Optimizer optimizer) throws IOException {
+        String expected = readExpected(testFilePath);
+        assertEquals(expected, exec(new LPLParser().parse(testFilePath), optimizer));
+    }
+
     /**
      * Run a type-checker test. Each test consists of two files, one containing a
      * well-typed LPL program, and a "mutant twin" where a type-error